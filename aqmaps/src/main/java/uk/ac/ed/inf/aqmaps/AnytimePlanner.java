@@ -0,0 +1,164 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+public class AnytimePlanner {
+
+    private Map map;
+    private Position startPos;
+    private int seed;
+
+    // Shared by every flight, as they all start from the same position on the same map
+    private DistanceField homeField;
+
+    // Number of flights evaluated by the last call to plan
+    private int noOfFlights;
+
+    // Legs shared by every flight, since perturbed tours mostly fly the same legs, or null
+    private LegCache legCache;
+
+    public AnytimePlanner(Map map, Position startPos, int seed) {
+        this.map = map;
+        this.startPos = startPos;
+        this.seed = seed;
+    }
+
+    public int getNoOfFlights() {
+        return noOfFlights;
+    }
+
+    public void setLegCache(LegCache legCache) {
+        this.legCache = legCache;
+    }
+
+    /**
+     * Plans a flight that keeps improving until the deadline. The greedy flight is published
+     * first, whatever the deadline, then the tour of the sensors is shortened with 2-opt and
+     * randomly perturbed, and every flight better than the best so far is published. Only the
+     * order of the sensors is searched: the legs between them are flown by the Drone's usual
+     * rules, so a tour that is shorter in straight lines can still fly worse, and is then dropped
+     *
+     * @param deadline      - value of System.nanoTime() after which no new flight is started
+     * @param onImprovement - called with every flight better than the previous ones, may be null
+     * @return the best flight found
+     */
+    public Drone plan(long deadline, Consumer<Drone> onImprovement) throws IOException, InterruptedException {
+        for (Sensor sensor : map.getSensors()) sensor.toPosition();
+        if (homeField == null) homeField = new DistanceField(map.getObstacles(), startPos);
+        noOfFlights = 0;
+        var rnd = new Random(seed);
+
+        // Valid plan straight away: the greedy flight to the closest sensor
+        var best = fly(null);
+        publish(best, onImprovement);
+
+        // Tour in the order of the greedy flight, followed by the sensors it did not visit
+        var tour = new ArrayList<Sensor>(best.getVisitedSensors());
+        tour.addAll(best.getSensorsToVisit());
+        if (tour.size() < 3) return best;
+
+        var current = tour;
+        if (twoOpt(current) && System.nanoTime() < deadline) {
+            var drone = fly(current);
+            if (Portfolio.isBetter(drone, best, startPos)) {
+                best = drone;
+                publish(best, onImprovement);
+            }
+        }
+
+        // Perturb the tour until the deadline, keeping changes that do not make the flight worse
+        var currentDrone = best;
+        while (System.nanoTime() < deadline) {
+            var candidate = new ArrayList<Sensor>(current);
+            perturb(candidate, rnd);
+            twoOpt(candidate);
+
+            var drone = fly(candidate);
+            if (!Portfolio.isBetter(currentDrone, drone, startPos)) {
+                current = candidate;
+                currentDrone = drone;
+            }
+            if (Portfolio.isBetter(drone, best, startPos)) {
+                best = drone;
+                publish(best, onImprovement);
+            }
+        }
+        return best;
+    }
+
+    private Drone fly(List<Sensor> tour) throws IOException, InterruptedException {
+        var drone = new Drone(map, startPos, new Random(seed), tour);
+        drone.setPrintPerformance(false);
+        drone.setHomeField(homeField);
+        drone.setLegCache(legCache);
+        drone.droneSimulator();
+        noOfFlights++;
+        return drone;
+    }
+
+    private static void publish(Drone drone, Consumer<Drone> onImprovement) {
+        if (onImprovement != null) onImprovement.accept(drone);
+    }
+
+    /**
+     * Moves a random segment of one to three sensors to a random place in the tour
+     *
+     * @param tour - tour to change in place
+     * @param rnd  - random generator
+     */
+    private static void perturb(List<Sensor> tour, Random rnd) {
+        var n = tour.size();
+        var length = 1 + rnd.nextInt(Math.min(3, n - 1));
+        var from = rnd.nextInt(n - length + 1);
+        var segment = new ArrayList<Sensor>(tour.subList(from, from + length));
+        tour.subList(from, from + length).clear();
+        tour.addAll(rnd.nextInt(tour.size() + 1), segment);
+    }
+
+    /**
+     * Shortens a closed tour starting and ending at the start position by reversing segments
+     * while this reduces its straight-line length
+     *
+     * @param tour - tour to change in place
+     * @return true if the tour changed, false otherwise
+     */
+    private boolean twoOpt(List<Sensor> tour) throws IOException, InterruptedException {
+        var n = tour.size();
+        var points = new Position[n + 2];
+        points[0] = startPos;
+        for (int i = 0; i < n; i++) points[i + 1] = tour.get(i).toPosition();
+        points[n + 1] = startPos;
+
+        var changed = false;
+        var improved = true;
+        while (improved) {
+            improved = false;
+            for (int i = 1; i < n; i++) {
+                for (int j = i + 1; j <= n; j++) {
+                    var before = points[i - 1].distanceBetween(points[i]) + points[j].distanceBetween(points[j + 1]);
+                    var after = points[i - 1].distanceBetween(points[j]) + points[i].distanceBetween(points[j + 1]);
+                    if (after < before - 1e-12) {
+                        reverse(points, i, j);
+                        Collections.reverse(tour.subList(i - 1, j));
+                        improved = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static void reverse(Position[] points, int i, int j) {
+        while (i < j) {
+            var tmp = points[i];
+            points[i++] = points[j];
+            points[j--] = tmp;
+        }
+    }
+}
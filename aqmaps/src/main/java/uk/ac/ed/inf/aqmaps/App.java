@@ -1,9 +1,10 @@
 package uk.ac.ed.inf.aqmaps;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Random;
-import com.mapbox.geojson.*;
 
+import com.mapbox.geojson.FeatureCollection;
 
 public class App 
 {       
@@ -14,6 +15,36 @@ public class App
      * Main function that reads input arguments, calls the methods to move the drone
      * with respect to the input, and generates the output .geojson and .txt files
      * 
+     * Optional arguments 8 and 9 (number of seeds, target number of moves), given together, fly
+     * one drone per seed in parallel and only output the best flight
+     * 
+     * With -Daqmaps.deadlineMs=n, the flight is planned by AnytimePlanner, which keeps improving
+     * the order of the sensors for n milliseconds and outputs the best flight found
+     * 
+     * With -Daqmaps.hilbert=true, the sensors are visited in the order of HilbertTour instead of
+     * always heading to the closest sensor
+     * 
+     * With -Daqmaps.waypoints=true, sensors close to each other are grouped by CoveragePlanner and
+     * read from a single position, each log line listing every sensor read at that move
+     * 
+     * -Daqmaps.maxMetres=n caps the length of the flight to n metres, measured in the metric frame
+     * of the map, on top of the 150 moves
+     * 
+     * With -Daqmaps.legCache=file, legs flown on previous runs are loaded from the file and replayed
+     * when the drone flies between the same cells again, and the legs flown are saved back to the file
+     * 
+     * With -Daqmaps.stream=true, every sensor visit is appended to readings-DD-MM-YYYY.ndjson while
+     * the drone flies, and the interpolated heatmap-DD-MM-YYYY.geojson is written at the end
+     * 
+     * With -Daqmaps.simplify=tolerance (in degrees), the flight path is also written simplified at
+     * -Daqmaps.lod levels of detail (default 3) to flightpath-lod-DD-MM-YYYY.geojson
+     * 
+     * -Daqmaps.precision=n rounds the coordinates of the .geojson outputs to n decimals, and
+     * -Daqmaps.gzip=true writes them as .geojson.gz
+     * 
+     * With -Daqmaps.jfr=true, flight recorder events for every leg, escape direction, HTTP fetch
+     * and file write are recorded to flight-DD-MM-YYYY.jfr
+     * 
      * @param args
      * @throws IOException
      * @throws InterruptedException
@@ -28,29 +59,96 @@ public class App
         double startlng = Double.parseDouble(args[4]);
         int seed = Integer.parseInt(args[5]);
         port = args[6];
+        if (args.length == 8) {
+            throw new IllegalArgumentException("arguments 8 and 9 (number of seeds, target number of moves) must be given together");
+        }
         
         // Generate the random seed
         rnd = new Random(seed);
         
+        var recording = FlightEvents.ENABLED ? FlightEvents.startRecording() : null;
+        
         // Instantiate map and drone
         var map = new Map(day, month, year); 
         var initialPos = new Position(startlng, startlat);
-        var drone = new Drone(map, initialPos);
+        Drone drone;
         
-        // Run the drone algorithm
-        drone.droneSimulator();
+        var legCacheFile = System.getProperty("aqmaps.legCache");
+        var legCache = legCacheFile == null ? null : LegCache.load(Path.of(legCacheFile), LegCache.CAPACITY);
+        
+        if (args.length > 8) {
+            // Run the drone algorithm for several seeds and keep the best flight
+            var portfolio = new Portfolio(map, initialPos);
+            portfolio.setLegCache(legCache);
+            drone = portfolio.run(seed, Integer.parseInt(args[7]), Integer.parseInt(args[8]));
+            portfolio.printSummary();
+        } else if (System.getProperty("aqmaps.deadlineMs") != null) {
+            // Keep improving the flight until the deadline, reporting every better flight. The sensors
+            // are located first so that the whole budget is spent planning
+            for (Sensor sensor : map.getSensors()) sensor.toPosition();
+            var deadlineMs = System.getProperty("aqmaps.deadlineMs");
+            long budgetMs;
+            try {
+                budgetMs = Long.parseLong(deadlineMs.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("-Daqmaps.deadlineMs must be a number of milliseconds, not \"" + deadlineMs + "\"", e);
+            }
+            var deadline = System.nanoTime() + budgetMs * 1000000;
+            var planner = new AnytimePlanner(map, initialPos, seed);
+            planner.setLegCache(legCache);
+            drone = planner.plan(deadline, better -> System.out.println("Improved plan: "
+                    + better.getVisitedSensors().size() + " sensors, " + better.getMovesUsed() + " moves"));
+            System.out.println("Flights evaluated: " + planner.getNoOfFlights());
+        } else {
+            if (Boolean.getBoolean("aqmaps.hilbert")) {
+                drone = new Drone(map, initialPos, rnd, HilbertTour.plan(initialPos, map.getSensors(), HilbertTour.WINDOW));
+            } else {
+                drone = new Drone(map, initialPos);
+            }
+            drone.setLegCache(legCache);
+            if (Boolean.getBoolean("aqmaps.waypoints")) {
+                drone.setWaypoints(new CoveragePlanner(map.getObstacles()).cover(map.getSensors()));
+            }
+            
+            HeatmapSubscriber heatmap = null;
+            if (Boolean.getBoolean("aqmaps.stream")) {
+                heatmap = new HeatmapSubscriber(Path.of("readings-" + day + "-" + month + "-" + year + ".ndjson"));
+                drone.getVisitPublisher().subscribe(heatmap);
+            }
+            
+            // Run the drone algorithm
+            drone.droneSimulator();
+            
+            if (heatmap != null) {
+                heatmap.awaitCompletion();
+                WriteFiles.writeGeoJSON(heatmap.getHeatmap(), "heatmap-" + day + "-" + month + "-" + year + ".geojson");
+            }
+        }
 
         
         // Create output files 
-        var geojson = WriteFiles.displayMap(drone.getVisitedSensors(), drone.getSensorsToVisit());
-        geojson.add(WriteFiles.displayPath(drone.getFlightPath()));
-        
-        // ** FOR TESTING PURPOSES **
-        //geojson.add(WriteFiles.displayConfinementArea(-3.192473,-3.184319,55.946233,55.942617));
-        //geojson.addAll(map.getNoFlyZones()); 
-        
-        var fc = FeatureCollection.fromFeatures(geojson);
+        var fc = WriteFiles.displayFlight(drone);
         WriteFiles.writeGeoJSON(fc, day, month, year);
         WriteFiles.writeLogFile(drone.getLog(), day, month, year);    
+        
+        var tolerance = System.getProperty("aqmaps.simplify");
+        if (tolerance != null) {
+            var levels = new PathSimplifier(drone.getFlightPath())
+                    .displayLevels(Double.parseDouble(tolerance), Integer.getInteger("aqmaps.lod", 3));
+            WriteFiles.writeGeoJSON(FeatureCollection.fromFeatures(levels),
+                    "flightpath-lod-" + day + "-" + month + "-" + year + ".geojson");
+        }
+        JsonParser.printLatencies();
+        
+        if (legCache != null) {
+            System.out.println(legCache);
+            legCache.save(Path.of(legCacheFile));
+        }
+        
+        if (recording != null) {
+            recording.stop();
+            recording.dump(Path.of("flight-" + day + "-" + month + "-" + year + ".jfr"));
+            recording.close();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,229 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public class BatchPipeline {
+
+    // Maps fetched ahead of planning, and flights planned ahead of writing. A stage that gets this
+    // far ahead blocks until the next stage catches up
+    private static final int CAPACITY = Integer.getInteger("aqmaps.pipeline.capacity", 2);
+
+    private final Position startPos;
+    private final int seed;
+    private final int capacity;
+
+    // Directory of the output files, the current directory by default as for App
+    private Path outputDir = Path.of("");
+
+    private final StageMetrics fetchMetrics = new StageMetrics("fetch");
+    private final StageMetrics planMetrics = new StageMetrics("plan");
+    private final StageMetrics writeMetrics = new StageMetrics("write");
+
+    public BatchPipeline(Position startPos, int seed) {
+        this(startPos, seed, CAPACITY);
+    }
+
+    public BatchPipeline(Position startPos, int seed, int capacity) {
+        this.startPos = startPos;
+        this.seed = seed;
+        this.capacity = capacity;
+    }
+
+    public static class StageMetrics {
+        public final String name;
+
+        // Each stage is run by a single thread, and only read once the pipeline has finished
+        private int items;
+        private long busyNanos;
+        private long idleNanos;
+        private long blockedNanos;
+
+        public StageMetrics(String name) {
+            this.name = name;
+        }
+
+        public int getItems() {
+            return items;
+        }
+
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        public long getIdleNanos() {
+            return idleNanos;
+        }
+
+        public long getBlockedNanos() {
+            return blockedNanos;
+        }
+
+        /**
+         * @return dates processed per second of work, not counting the time spent waiting for the
+         *         previous stage or blocked on the next one
+         */
+        public double getThroughput() {
+            return busyNanos == 0 ? 0 : items * 1e9 / busyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s: %d dates, %.1f dates/s, busy %dms, idle %dms, blocked %dms",
+                    name, items, getThroughput(), busyNanos / 1000000, idleNanos / 1000000, blockedNanos / 1000000);
+        }
+    }
+
+    private static class Job {
+        final String day;
+        final String month;
+        final String year;
+        Map map;
+        Drone drone;
+
+        Job(String day, String month, String year) {
+            this.day = day;
+            this.month = month;
+            this.year = year;
+        }
+    }
+
+    // Passed down the pipeline after the last date, so that every stage stops
+    private static final Job END = new Job(null, null, null);
+
+    private interface Work {
+        void process(Job job) throws IOException, InterruptedException;
+    }
+
+    public void setOutputDir(Path outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    public List<StageMetrics> getMetrics() {
+        return Arrays.asList(fetchMetrics, planMetrics, writeMetrics);
+    }
+
+    /**
+     * Flies every date given, writing the same files as App in the current directory, or in the
+     * directory given with -Daqmaps.outputDir
+     *
+     * Usage: lat lng seed port DD-MM-YYYY...
+     *
+     * @param args
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        var startPos = new Position(Double.parseDouble(args[1]), Double.parseDouble(args[0]));
+        var seed = Integer.parseInt(args[2]);
+        App.port = args[3];
+
+        var dates = new ArrayList<String[]>();
+        for (int i = 4; i < args.length; i++) dates.add(args[i].split("-"));
+
+        var pipeline = new BatchPipeline(startPos, seed);
+        pipeline.setOutputDir(Path.of(System.getProperty("aqmaps.outputDir", "")));
+        var start = System.nanoTime();
+        pipeline.run(dates);
+        System.out.println("Flew " + dates.size() + " dates in " + (System.nanoTime() - start) / 1000000 + "ms");
+        for (StageMetrics metrics : pipeline.getMetrics()) System.out.println(metrics);
+    }
+
+    /**
+     * Flies the dates through three stages running concurrently, connected by bounded queues:
+     * fetching the map and the sensor coordinates, planning the flight, and writing the output
+     * files. While a flight is planned, the next maps are fetched and the previous flight is written
+     *
+     * @param dates - List of dates as {day, month, year}
+     * @return the flights, in the order of the dates
+     * @throws IOException if any stage failed, after stopping the other stages
+     * @throws InterruptedException
+     */
+    public List<Drone> run(List<String[]> dates) throws IOException, InterruptedException {
+        var pending = new LinkedBlockingQueue<Job>();
+        for (String[] date : dates) pending.add(new Job(date[0], date[1], date[2]));
+        pending.add(END);
+        var fetched = new ArrayBlockingQueue<Job>(capacity);
+        var planned = new ArrayBlockingQueue<Job>(capacity);
+
+        var drones = new ArrayList<Drone>();
+        var pool = Executors.newFixedThreadPool(3);
+        var stages = new ExecutorCompletionService<Void>(pool);
+
+        stages.submit(stage(pending, fetched, fetchMetrics, job -> {
+            job.map = new Map(job.day, job.month, job.year);
+            for (Sensor sensor : job.map.getSensors()) sensor.toPosition();
+            job.map.getObstacles();
+        }));
+        stages.submit(stage(fetched, planned, planMetrics, job -> {
+            job.drone = new Drone(job.map, startPos, new Random(seed));
+            job.drone.setPrintPerformance(false);
+            job.drone.droneSimulator();
+        }));
+        stages.submit(stage(planned, null, writeMetrics, job -> {
+            var date = job.day + "-" + job.month + "-" + job.year;
+            WriteFiles.writeGeoJSON(WriteFiles.displayFlight(job.drone), outputDir.resolve("readings-" + date + ".geojson").toString());
+            WriteFiles.writeToFile(outputDir.resolve("flightpath-" + date + ".txt").toString(), job.drone.getLog());
+            drones.add(job.drone);
+        }));
+        pool.shutdown();
+
+        try {
+            for (int i = 0; i < 3; i++) stages.take().get();
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        } finally {
+            // Interrupt the other stages if one failed or this thread was interrupted, as they
+            // would otherwise wait forever on their queues
+            pool.shutdownNow();
+        }
+        return drones;
+    }
+
+    /**
+     * Runs a stage until it takes END from its input queue, passing END on to the next stage
+     *
+     * @param in      - queue of the dates to process
+     * @param out     - queue of the next stage, or null for the last stage
+     * @param metrics - metrics of the stage
+     * @param work    - processing of one date
+     * @return the stage, to be run on its own thread
+     */
+    private static Callable<Void> stage(BlockingQueue<Job> in, BlockingQueue<Job> out, StageMetrics metrics, Work work) {
+        return () -> {
+            while (true) {
+                var waitStart = System.nanoTime();
+                var job = in.take();
+                var workStart = System.nanoTime();
+                metrics.idleNanos += workStart - waitStart;
+
+                if (job != END) {
+                    work.process(job);
+                    metrics.items++;
+                }
+                var workEnd = System.nanoTime();
+                metrics.busyNanos += workEnd - workStart;
+
+                if (out != null) {
+                    out.put(job);
+                    metrics.blockedNanos += System.nanoTime() - workEnd;
+                }
+                if (job == END) return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,105 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CoveragePlanner {
+
+    // A sensor is covered by a waypoint closer than this, leaving the drone 0.00005 degrees of slack
+    // around the waypoint to still be within the 0.0002 degree read radius of every sensor
+    private static final double COVER_RADIUS = 0.00015;
+
+    public static class Waypoint {
+        public final Position position;
+        public final List<Sensor> sensors;
+
+        public Waypoint(Position position, List<Sensor> sensors) {
+            this.position = position;
+            this.sensors = sensors;
+        }
+    }
+
+    private final Obstacles obstacles;
+
+    public CoveragePlanner(Obstacles obstacles) {
+        this.obstacles = obstacles;
+    }
+
+    /**
+     * Groups the sensors into waypoints from which several sensors can be read at once, solving
+     * the set cover problem greedily: the candidate waypoints are the sensors themselves and the
+     * centres of every pair and triple of sensors close enough to share one, and the candidate
+     * covering the most sensors not yet covered is picked until every sensor is covered
+     *
+     * @param sensors - sensors to visit
+     * @return List of waypoints, each sensor belonging to exactly one of them
+     */
+    public List<Waypoint> cover(List<Sensor> sensors) throws IOException, InterruptedException {
+        var n = sensors.size();
+        var positions = new Position[n];
+        for (int i = 0; i < n; i++) positions[i] = sensors.get(i).toPosition();
+
+        var candidates = new ArrayList<Position>();
+        for (int i = 0; i < n; i++) {
+            candidates.add(positions[i]);
+            for (int j = i + 1; j < n; j++) {
+                if (positions[i].distanceBetween(positions[j]) >= 2 * COVER_RADIUS) continue;
+                addCandidate(candidates, centre(positions[i], positions[j]));
+                for (int k = j + 1; k < n; k++) {
+                    if (positions[i].distanceBetween(positions[k]) >= 2 * COVER_RADIUS) continue;
+                    addCandidate(candidates, centre(positions[i], positions[j], positions[k]));
+                }
+            }
+        }
+
+        var covered = new boolean[n];
+        var noOfCovered = 0;
+        var waypoints = new ArrayList<Waypoint>();
+        while (noOfCovered < n) {
+            Position best = null;
+            var bestCount = 0;
+            for (Position candidate : candidates) {
+                var count = 0;
+                for (int i = 0; i < n; i++) {
+                    if (!covered[i] && candidate.distanceBetween(positions[i]) < COVER_RADIUS) count++;
+                }
+                if (count > bestCount) {
+                    bestCount = count;
+                    best = candidate;
+                }
+            }
+
+            var group = new ArrayList<Sensor>();
+            var last = -1;
+            for (int i = 0; i < n; i++) {
+                // A sensor is always a candidate covering itself, so every round covers at least one
+                if (!covered[i] && best.distanceBetween(positions[i]) < COVER_RADIUS) {
+                    covered[i] = true;
+                    noOfCovered++;
+                    group.add(sensors.get(i));
+                    last = i;
+                }
+            }
+            // A waypoint of a single sensor is the sensor itself
+            waypoints.add(new Waypoint(group.size() == 1 ? positions[last] : best, group));
+        }
+        return waypoints;
+    }
+
+    /**
+     * Adds a candidate waypoint if the drone is allowed to fly there
+     */
+    private void addCandidate(List<Position> candidates, Position candidate) {
+        if (candidate.inConfinementArea() && !obstacles.contains(candidate)) candidates.add(candidate);
+    }
+
+    private static Position centre(Position... points) {
+        double lng = 0, lat = 0;
+        for (Position p : points) {
+            lng += p.getLng();
+            lat += p.getLat();
+        }
+        return new Position(lng / points.length, lat / points.length);
+    }
+}
@@ -0,0 +1,319 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+public class DistanceField {
+
+    // Side of a quantisation cell in degrees, a third of a move
+    public static final double CELL_SIZE = 0.0001;
+
+    // Cells around a cell that a single move can come from, a move being 3 cells long
+    private static final int MOVE_CELLS = 4;
+
+    // Index of every reached cell in the arrays below, by key
+    private LongIntHashMap indexOf;
+
+    // For every cell, in the order it was first reached: its key, the position it was reached at,
+    // the cell it was reached from and the number of moves from the start position, or -1 if a
+    // no fly zone added since then cut it off
+    private long[] keys;
+    private double[] lngs;
+    private double[] lats;
+    private int[] parents;
+    private int[] moves;
+    private int noOfCells;
+    private int noOfReached;
+
+    /**
+     * Computes the number of moves needed to reach every cell of the confinement area from
+     * the start position, using a breadth-first search over the 36 possible directions.
+     * Since every move can be undone by moving in the opposite direction, this is also the
+     * number of moves needed to get back to the start position from that cell
+     *
+     * @param obstacles - no fly zones the drone must avoid
+     * @param start     - start position of the drone
+     */
+    public DistanceField(Obstacles obstacles, Position start) {
+        indexOf = new LongIntHashMap(4096);
+        keys = new long[4096];
+        lngs = new double[4096];
+        lats = new double[4096];
+        parents = new int[4096];
+        moves = new int[4096];
+        addCell(key(start), start, -1, 0);
+        expand(obstacles, new int[] {0}, 1);
+    }
+
+    private DistanceField(DistanceField other) {
+        indexOf = other.indexOf.copy();
+        keys = other.keys.clone();
+        lngs = other.lngs.clone();
+        lats = other.lats.clone();
+        parents = other.parents.clone();
+        moves = other.moves.clone();
+        noOfCells = other.noOfCells;
+        noOfReached = other.noOfReached;
+    }
+
+    /**
+     * Times adding a no fly zone to the map of a date: the distance field computed again from
+     * scratch, against the field repaired from the field without the zone. Each zone is a square
+     * of the given side centred on the start position moved by a few moves in every direction
+     *
+     * Usage: fixturesDirs lat lng DD MM YYYY [side in degrees, default 0.0004 [rounds, default 20]],
+     * fixturesDirs as in Scoreboard
+     *
+     * @param args
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        var startPos = new Position(Double.parseDouble(args[2]), Double.parseDouble(args[1]));
+        var side = args.length > 6 ? Double.parseDouble(args[6]) : 0.0004;
+        var rounds = args.length > 7 ? Integer.parseInt(args[7]) : 20;
+
+        var fixtureServer = new FixtureServer(FixtureServer.parseRoots(args[0]));
+        fixtureServer.start(0);
+        Map map;
+        try {
+            App.port = String.valueOf(fixtureServer.getPort());
+            map = new Map(args[3], args[4], args[5]);
+            map.getObstacles();
+        } finally {
+            fixtureServer.stop();
+        }
+
+        var field = new DistanceField(map.getObstacles(), startPos);
+        var zones = new ArrayList<Obstacles>();
+        var withZones = new ArrayList<Obstacles>();
+        for (int d = 0; d < 360; d += 30) {
+            var centre = startPos.nextPosition(d).nextPosition(d).nextPosition(d).nextPosition(d);
+            var zone = square(centre, side);
+            zones.add(new Obstacles(List.of(zone)));
+            var obstacles = new Obstacles(map.getObstacles());
+            obstacles.add(zone);
+            withZones.add(obstacles);
+        }
+
+        // Warm up both, so that the first zone is not measured before they are compiled
+        for (int i = 0; i < rounds; i++) {
+            for (int z = 0; z < zones.size(); z++) {
+                new DistanceField(withZones.get(z), startPos);
+                field.repair(withZones.get(z), zones.get(z));
+            }
+        }
+
+        var full = new double[rounds];
+        var repaired = new double[rounds];
+        var differentCells = 0;
+        var unreached = 0;
+        var maxDifference = 0;
+        for (int z = 0; z < zones.size(); z++) {
+            var added = zones.get(z);
+            var obstacles = withZones.get(z);
+            DistanceField rebuilt = null;
+            DistanceField repair = null;
+            for (int i = 0; i < rounds; i++) {
+                var time = System.nanoTime();
+                rebuilt = new DistanceField(obstacles, startPos);
+                full[i] = (System.nanoTime() - time) / 1e6;
+
+                time = System.nanoTime();
+                repair = field.repair(obstacles, added);
+                repaired[i] = (System.nanoTime() - time) / 1e6;
+            }
+            Arrays.sort(full);
+            Arrays.sort(repaired);
+
+            for (int i = 0; i < rebuilt.noOfCells; i++) {
+                var pos = new Position(rebuilt.lngs[i], rebuilt.lats[i]);
+                var difference = Math.abs(rebuilt.getMovesToHome(pos) - repair.getMovesToHome(pos));
+                if (difference > 0) differentCells++;
+                if (repair.getMovesToHome(pos) < 0) unreached++;
+                maxDifference = Math.max(maxDifference, difference);
+            }
+            var changed = 0;
+            for (int i = 0; i < field.noOfCells; i++) if (repair.moves[i] != field.moves[i]) changed++;
+            System.out.println(String.format(Locale.ROOT, "Zone %3d degrees: full %.3fms, repaired %.3fms, %d of %d cells changed",
+                    30 * z, full[rounds / 2], repaired[rounds / 2], changed, field.noOfReached));
+        }
+        System.out.println("Cells differing from the full field: " + differentCells + ", by at most " + maxDifference
+                + " moves, of which unreached by the repair: " + unreached);
+    }
+
+    private static Feature square(Position centre, double side) {
+        var x = centre.getLng() - side / 2;
+        var y = centre.getLat() - side / 2;
+        var corners = List.of(Point.fromLngLat(x, y), Point.fromLngLat(x + side, y), Point.fromLngLat(x + side, y + side),
+                Point.fromLngLat(x, y + side), Point.fromLngLat(x, y));
+        return Feature.fromGeometry(Polygon.fromLngLats(List.of(corners)));
+    }
+
+    /**
+     * Quantises a position to the key of the cell containing it
+     *
+     * @param pos - position to quantise
+     * @return key of the cell
+     */
+    public static long key(Position pos) {
+        var x = (long) Math.floor(pos.getLng() / CELL_SIZE);
+        var y = (long) Math.floor(pos.getLat() / CELL_SIZE);
+        return (x << 32) ^ (y & 0xffffffffL);
+    }
+
+    /**
+     * Gets the number of moves needed to get back to the start position
+     *
+     * @param pos - current position of the drone
+     * @return number of moves, or -1 if the cell of the position was never reached
+     */
+    public int getMovesToHome(Position pos) {
+        var i = indexOf.get(key(pos), -1);
+        return i < 0 ? -1 : moves[i];
+    }
+
+    public int getNoOfCells() {
+        return noOfReached;
+    }
+
+    /**
+     * Computes the field after a no fly zone is added, without searching the whole area again.
+     * Only the cells whose path from the start position crosses the new zone are cut off, and
+     * they are reached again from the cells around them that kept their path, in order of moves.
+     * The other cells keep their moves, which are still the moves of a path avoiding every zone.
+     * This field is left unchanged, since it may be shared by several drones
+     *
+     * @param obstacles - no fly zones the drone must avoid, including the new zone
+     * @param added     - the new zone only
+     * @return the repaired field
+     */
+    public DistanceField repair(Obstacles obstacles, Obstacles added) {
+        var field = new DistanceField(this);
+        field.cutOff(obstacles, added);
+        return field;
+    }
+
+    /**
+     * Cuts off the cells whose path crosses the new zone, and reaches them again
+     *
+     * @param obstacles - no fly zones the drone must avoid, including the new zone
+     * @param added     - the new zone only
+     */
+    private void cutOff(Obstacles obstacles, Obstacles added) {
+        // Parents are reached with one move fewer than their children, so visiting the cells in
+        // order of moves finds every cell after the cell it was reached from
+        var maxMoves = 0;
+        for (int i = 0; i < noOfCells; i++) maxMoves = Math.max(maxMoves, moves[i]);
+        var byMoves = new int[maxMoves + 2];
+        for (int i = 0; i < noOfCells; i++) if (moves[i] >= 0) byMoves[moves[i] + 1]++;
+        for (int m = 1; m < byMoves.length; m++) byMoves[m] += byMoves[m - 1];
+        var order = new int[byMoves[maxMoves + 1]];
+        for (int i = 0; i < noOfCells; i++) if (moves[i] >= 0) order[byMoves[moves[i]]++] = i;
+
+        var cut = new boolean[noOfCells];
+        var noOfCut = 0;
+        for (int i : order) {
+            var p = parents[i];
+            if (p < 0) continue;
+            if (cut[p] || added.intersects(new Position(lngs[p], lats[p]), new Position(lngs[i], lats[i]))) {
+                cut[i] = true;
+                noOfCut++;
+            }
+        }
+        if (noOfCut == 0) return;
+
+        // Cells still reached that a single move may lead from into a cut off cell
+        var frontier = new boolean[noOfCells];
+        for (int i = 0; i < noOfCells; i++) {
+            if (!cut[i]) continue;
+            moves[i] = -1;
+            noOfReached--;
+            var x = keys[i] >> 32;
+            var y = (int) keys[i];
+            for (int dx = -MOVE_CELLS; dx <= MOVE_CELLS; dx++) {
+                for (int dy = -MOVE_CELLS; dy <= MOVE_CELLS; dy++) {
+                    var j = indexOf.get(((x + dx) << 32) ^ ((y + dy) & 0xffffffffL), -1);
+                    if (j >= 0 && !cut[j] && moves[j] >= 0) frontier[j] = true;
+                }
+            }
+        }
+
+        var sources = new int[noOfCells];
+        var noOfSources = 0;
+        for (int i : order) if (frontier[i]) sources[noOfSources++] = i;
+        expand(obstacles, sources, noOfSources);
+    }
+
+    /**
+     * Breadth-first search from sources in order of moves, each source being expanded once the
+     * cells reached so far with fewer moves have been expanded
+     *
+     * @param obstacles   - no fly zones the drone must avoid
+     * @param sources     - cells to expand, in order of moves
+     * @param noOfSources - number of sources
+     */
+    private void expand(Obstacles obstacles, int[] sources, int noOfSources) {
+        // Every cell is queued at most once, when it is reached
+        var queue = new int[keys.length];
+        var head = 0;
+        var tail = 0;
+        var s = 0;
+        while (head < tail || s < noOfSources) {
+            int i;
+            if (s < noOfSources && (head == tail || moves[sources[s]] <= moves[queue[head]])) i = sources[s++];
+            else i = queue[head++];
+
+            var pos = new Position(lngs[i], lats[i]);
+            for (int d = 0; d < 360; d += 10) {
+                var nextPos = pos.nextPosition(d);
+                if (!nextPos.inConfinementArea()) continue;
+
+                // Only look for buildings on the way to cells not reached yet
+                var k = key(nextPos);
+                var j = indexOf.get(k, -1);
+                if (j >= 0 && moves[j] >= 0) continue;
+                if (obstacles.intersects(pos, nextPos)) continue;
+
+                if (j < 0) {
+                    j = addCell(k, nextPos, i, moves[i] + 1);
+                } else {
+                    lngs[j] = nextPos.getLng();
+                    lats[j] = nextPos.getLat();
+                    parents[j] = i;
+                    moves[j] = moves[i] + 1;
+                    noOfReached++;
+                }
+                if (tail == queue.length) queue = Arrays.copyOf(queue, 2 * queue.length);
+                queue[tail++] = j;
+            }
+        }
+    }
+
+    private int addCell(long key, Position pos, int parent, int noOfMoves) {
+        if (noOfCells == keys.length) {
+            var capacity = 2 * keys.length;
+            keys = Arrays.copyOf(keys, capacity);
+            lngs = Arrays.copyOf(lngs, capacity);
+            lats = Arrays.copyOf(lats, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            moves = Arrays.copyOf(moves, capacity);
+        }
+        var i = noOfCells++;
+        keys[i] = key;
+        lngs[i] = pos.getLng();
+        lats[i] = pos.getLat();
+        parents[i] = parent;
+        moves[i] = noOfMoves;
+        indexOf.put(key, i);
+        noOfReached++;
+        return i;
+    }
+}
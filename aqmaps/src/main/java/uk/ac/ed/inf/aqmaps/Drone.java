@@ -1,14 +1,17 @@
 package uk.ac.ed.inf.aqmaps;
 
-import java.awt.geom.Line2D;
-import java.awt.geom.Point2D;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.SubmissionPublisher;
 
 import com.mapbox.geojson.Feature;
-import com.mapbox.geojson.Point;
-import com.mapbox.geojson.Polygon;
 
 public class Drone {
  
@@ -16,31 +19,115 @@ public class Drone {
     private int moves;
     private Map map;
     
-    // String to be written to the output .txt file
-    private String log;
+    // Random generator used when the drone has to escape a loop
+    private Random rnd;
+    
+    // Edges of the no fly zones that the drone must avoid
+    private Obstacles obstacles;
+    
+    // Moves needed to get back to the start position, recomputed when the no fly zones change
+    private DistanceField homeField;
+    
+    // Spare moves kept for the return leg, since the distance field is quantised
+    private static final int RETURN_MARGIN = 2;
+    
+    // Length of the flight in metres not to exceed, on top of the 150 moves, set with -Daqmaps.maxMetres
+    private static final double MAX_METRES = Double.parseDouble(System.getProperty("aqmaps.maxMetres", "Infinity"));
+    
+    // Metric frame used to measure the flight in metres, and the budget of this drone
+    private static final LocalFrame FRAME = LocalFrame.CONFINEMENT_AREA;
+    private double maxMetres = MAX_METRES;
+    private double metresFlown;
+    
+    // Map changes requested while the drone is flying, applied before its next move
+    private Queue<Feature> pendingNoFlyZones = new ConcurrentLinkedQueue<>();
+    private Queue<String> pendingDroppedSensors = new ConcurrentLinkedQueue<>();
+    
+    // Publishes every sensor visit while the drone flies, created when first requested
+    private SubmissionPublisher<VisitEvent> visitPublisher;
+    
+    // Whether to print the drone's performance at the end of the flight
+    private boolean printPerformance = true;
     
     // Sensor that the drone is trying to visit
     private Sensor targetSensor;
     
-    // List of sensors to be visited by the drone
-    private List<Sensor> sensorsToVisit = new ArrayList<Sensor>();
+    // Sensors to be visited by the drone, in the order of the map, so that ties between equally
+    // close sensors are always broken the same way
+    private LinkedHashSet<Sensor> sensorsToVisit = new LinkedHashSet<Sensor>();
     
     // Final list of visited sensors
     private List<Sensor> visitedSensors = new ArrayList<>();
     
-    // Flight path of the drone
-    private List<Position> flightPath = new ArrayList<>();
+    // Flight path of the drone, with the direction and sensor read of every move
+    private FlightPath flightPath;
+    
+    // Quantised cells visited by the drone, mapped to the leg (moves between two sensor visits)
+    // during which they were last visited: coming back to a cell within a leg means a loop
+    private LongIntHashMap visitedCells = new LongIntHashMap(256);
+    private int leg;
+    
+    // Flight recorder event of the current leg, with the move it started at and what happened
+    // during it, only used with -Daqmaps.jfr=true
+    private FlightEvents.Leg legEvent;
+    private int legStartMove;
+    private int legBlockedHeadings;
+    private int legLoopsAvoided;
+    
+    // Order in which to visit the sensors, or null to always head to the closest sensor
+    private List<Sensor> tour;
+    private int tourIndex;
     
-    // Flight path directions of the drone
-    private List<Integer> flightPathDirections = new ArrayList<>();
+    // Sensors of a tour by cell of SENSOR_CELL_SIZE, so that only the sensors around the drone
+    // are checked for a reading on the way, instead of every sensor after every move
+    private static final double SENSOR_CELL_SIZE = 0.0002;
+    private java.util.Map<Long, List<Sensor>> sensorCells;
+    
+    // Waypoint of every sensor when the drone reads all the sensors in range at each move,
+    // or null to read one sensor per move
+    private java.util.Map<Sensor, CoveragePlanner.Waypoint> waypointOf;
+    
+    // Legs flown before, whose moves are replayed instead of choosing every direction again
+    private LegCache legCache;
+    
+    // Key of the current leg, the position it heads to and its moves so far. A leg is only cached
+    // if it was planned, kept the same target and never drew a random direction
+    private String legKey;
+    private Position legToPos;
+    private byte[] legHeadings = new byte[150];
+    private int legMoves;
+    private boolean legCacheable;
+    
+    // Moves of the cached leg being replayed, or null
+    private byte[] replay;
     
     public Drone(Map currMap, Position currPos) throws IOException, InterruptedException {
+        this(currMap, currPos, App.rnd);
+    }
+    
+    public Drone(Map currMap, Position currPos, Random rnd) throws IOException, InterruptedException {
+        this(currMap, currPos, rnd, null);
+    }
+    
+    /**
+     * Creates a drone that visits the sensors in the given order instead of always heading to the
+     * closest one. Sensors met on the way are still visited as soon as they are within range
+     * 
+     * @param tour - order of the sensors to visit, or null to head to the closest sensor
+     */
+    public Drone(Map currMap, Position currPos, Random rnd, List<Sensor> tour) throws IOException, InterruptedException {
         this.map = currMap;
         this.currPos = currPos;
+        this.rnd = rnd;
         this.moves = 150;
-        this.log = "";
-        this.sensorsToVisit = currMap.getSensors();
-        this.targetSensor = this.closestSensor();
+        this.flightPath = new FlightPath(currPos);
+        // Copy so that several drones can fly the same map
+        this.sensorsToVisit = new LinkedHashSet<>(currMap.getSensors());
+        // Copy so that zones added mid-flight only affect this drone
+        this.obstacles = new Obstacles(currMap.getObstacles());
+        this.tour = tour;
+        if (tour != null) indexSensors();
+        this.targetSensor = this.nextTarget();
     } 
     
     // Used for testing
@@ -48,11 +135,14 @@ public class Drone {
         return currPos;
     }
     
+    // String to be written to the output .txt file
     public String getLog() {
-        return log;
+        var log = new StringBuilder();
+        flightPath.writeLog(log);
+        return log.toString();
     }
     
-    public List<Sensor> getSensorsToVisit() {
+    public Collection<Sensor> getSensorsToVisit() {
         return sensorsToVisit;
     }
     
@@ -60,12 +150,45 @@ public class Drone {
         return visitedSensors;
     }
     
-    public List<Position> getFlightPath() {
+    public FlightPath getFlightPath() {
         return flightPath;
     }
     
-    public List<Integer> getFlightPathDirection() {
-        return flightPathDirections;
+    public double getMetresFlown() {
+        return metresFlown;
+    }
+    
+    /**
+     * Caps the length of the flight, instead of the -Daqmaps.maxMetres default
+     * 
+     * @param maxMetres - metres the drone must not exceed, on top of the 150 moves
+     */
+    public void setMaxMetres(double maxMetres) {
+        this.maxMetres = maxMetres;
+    }
+    
+    /**
+     * Gets the publisher of the sensor visits, which is closed when the flight ends.
+     * Must be subscribed to before calling droneSimulator
+     * 
+     * @return Publisher of VisitEvent objects
+     */
+    public SubmissionPublisher<VisitEvent> getVisitPublisher() {
+        if (visitPublisher == null) visitPublisher = new SubmissionPublisher<>();
+        return visitPublisher;
+    }
+    
+    // Used for testing, e.g. with a publisher delivering every visit on the drone's thread
+    void setVisitPublisher(SubmissionPublisher<VisitEvent> visitPublisher) {
+        this.visitPublisher = visitPublisher;
+    }
+    
+    public void setPrintPerformance(boolean printPerformance) {
+        this.printPerformance = printPerformance;
+    }
+    
+    public int getMovesUsed() {
+        return 150 - moves;
     }
      
     /**
@@ -78,9 +201,7 @@ public class Drone {
         double closestDist = 100000;
         Sensor closestSensor = null;
         
-        var noOfSensors = sensorsToVisit.size();
-        for (int i=0; i < noOfSensors; i++) {
-            var currSensor = sensorsToVisit.get(i);
+        for (Sensor currSensor : sensorsToVisit) {
             var coord = currSensor.toPosition();
             double currDist = currPos.distanceBetween(coord);
             if (closestDist > currDist) {
@@ -92,29 +213,173 @@ public class Drone {
     }
     
     /**
-     * Checks whether moving the drone from its current position to the next position will intersect with a building
+     * Puts the sensors into square cells as wide as the reading range, so that every sensor within
+     * range of a position is in the cell of the position or one of its 8 neighbours
+     */
+    private void indexSensors() throws IOException, InterruptedException {
+        sensorCells = new HashMap<>();
+        for (Sensor sensor : sensorsToVisit) {
+            var pos = sensor.toPosition();
+            sensorCells.computeIfAbsent(sensorCell(Math.floor(pos.getLng() / SENSOR_CELL_SIZE), Math.floor(pos.getLat() / SENSOR_CELL_SIZE)),
+                    k -> new ArrayList<>()).add(sensor);
+        }
+    }
+    
+    private static long sensorCell(double x, double y) {
+        return ((long) x << 32) ^ ((long) y & 0xffffffffL);
+    }
+    
+    /**
+     * Gets the closest sensor still to be visited within range of a position, looking only at the
+     * cells around the position
      * 
-     * @param building - a building that is a no fly zone
-     * @param nextPos  - the intended next position of the drone
-     * @return true if this drone movement intersect with a building, false otherwise
+     * @param pos - position of the drone
+     * @return the closest sensor in range, or null if there is none
+     */
+    private Sensor closestSensorInRange(Position pos) throws IOException, InterruptedException {
+        var x = Math.floor(pos.getLng() / SENSOR_CELL_SIZE);
+        var y = Math.floor(pos.getLat() / SENSOR_CELL_SIZE);
+        Sensor closest = null;
+        var closestDist = Double.POSITIVE_INFINITY;
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                var cell = sensorCells.get(sensorCell(x + dx, y + dy));
+                if (cell == null) continue;
+                for (Sensor sensor : cell) {
+                    if (!sensorsToVisit.contains(sensor)) continue;
+                    var dist = pos.distanceBetween(sensor.toPosition());
+                    if (dist < closestDist && pos.withinDistance(sensor.toPosition())) {
+                        closestDist = dist;
+                        closest = sensor;
+                    }
+                }
+            }
+        }
+        return closest;
+    }
+    
+    /**
+     * Gets the sensor to head to next: the first sensor of the tour that is still to be visited,
+     * or the closest sensor if there is no tour (or every sensor of the tour has been visited)
+     * 
+     * @return The next target sensor
+     */
+    private Sensor nextTarget() throws IOException, InterruptedException {
+        if (tour != null) {
+            while (tourIndex < tour.size() && !sensorsToVisit.contains(tour.get(tourIndex))) tourIndex++;
+            if (tourIndex < tour.size()) return tour.get(tourIndex);
+        }
+        return closestSensor();
+    }
+    
+    /**
+     * Makes the drone read every sensor within range after each move, and head to the waypoint
+     * of a sensor instead of the sensor itself while the waypoint still has other sensors to read
+     * 
+     * @param waypoints - waypoints covering the sensors, e.g. computed by CoveragePlanner
+     */
+    public void setWaypoints(List<CoveragePlanner.Waypoint> waypoints) {
+        waypointOf = new HashMap<>();
+        for (CoveragePlanner.Waypoint waypoint : waypoints) {
+            for (Sensor sensor : waypoint.sensors) waypointOf.put(sensor, waypoint);
+        }
+    }
+    
+    /**
+     * Gets the position to head to in order to read a sensor: its waypoint if other sensors of the
+     * waypoint are still to be read, the sensor itself otherwise
+     * 
+     * @param sensor - target sensor
+     * @return position to head to
      */
-    private boolean checkIntersect(List<Point> building, Position nextPos) {
-        var intersect = false;
-        var move = new Line2D.Double(currPos.getLng(), currPos.getLat(), nextPos.getLng(), nextPos.getLat());
+    private Position aimFor(Sensor sensor) throws IOException, InterruptedException {
+        if (waypointOf == null) return sensor.toPosition();
+        var waypoint = waypointOf.get(sensor);
+        if (waypoint == null) return sensor.toPosition();
         
-        for (int i=0; i < building.size() - 1; i++) {
-            var start = building.get(i);
-            var end = building.get(i+1);
-            var startPt = new Point2D.Double(start.longitude(), start.latitude());
-            var endPt = new Point2D.Double(end.longitude(), end.latitude());
-            var currLine = new Line2D.Double(startPt, endPt);
-            intersect = move.intersectsLine(currLine);
-            
-            if (intersect) break;
-        }       
-        return intersect;
+        var unread = 0;
+        for (Sensor other : waypoint.sensors) {
+            if (sensorsToVisit.contains(other)) unread++;
+        }
+        return unread > 1 ? waypoint.position : sensor.toPosition();
+    }
+    
+    /**
+     * Visits every sensor within range of the drone's position
+     * 
+     * @return What3Words locations of the sensors read, separated by semicolons, or null if none
+     */
+    private String visitAllInRange() throws IOException, InterruptedException {
+        StringBuilder reads = null;
+        for (Sensor sensor : new ArrayList<>(sensorsToVisit)) {
+            if (!currPos.withinDistance(sensor.toPosition())) continue;
+            visit(sensor);
+            if (reads == null) reads = new StringBuilder(sensor.getLocation());
+            else reads.append(';').append(sensor.getLocation());
+        }
+        return reads == null ? null : reads.toString();
     }
-  
+    
+    /**
+     * Replays the legs found in the cache, and caches the new legs flown
+     * 
+     * @param legCache - cache shared by several drones, possibly flying other dates
+     */
+    public void setLegCache(LegCache legCache) {
+        this.legCache = legCache;
+    }
+    
+    /**
+     * Gets the next direction of the current leg if it is replayed from the cache. The cache is
+     * looked up at the first move of every leg. Since legs are cached by cell, the drone may start
+     * a little off the cached leg, so the replay stops at the first move that would be blocked or
+     * close a loop, and also if the target changes
+     * 
+     * @param targetPos - position the drone heads to
+     * @return direction of the next move, or -1 if the direction has to be chosen
+     */
+    private int getCachedDirection(Position targetPos) {
+        if (legCache == null) return -1;
+        
+        if (legMoves == 0) {
+            legKey = LegCache.key(currPos, targetPos, obstacles);
+            legToPos = targetPos;
+            replay = legCache.get(legKey);
+            legCacheable = replay == null;
+        } else if (targetPos.getLng() != legToPos.getLng() || targetPos.getLat() != legToPos.getLat()) {
+            legCacheable = false;
+            replay = null;
+        }
+        if (replay == null || legMoves >= replay.length) return -1;
+        
+        var direction = replay[legMoves] * 10;
+        var nextPos = currPos.nextPosition(direction);
+        if (checkIntersectForAllBuildings(nextPos) || !nextPos.inConfinementArea() || revisits(nextPos)) {
+            replay = null;
+            return -1;
+        }
+        return direction;
+    }
+    
+    /**
+     * Caches the leg that has just ended with a sensor read, if it was planned from start to end
+     */
+    private void cacheLeg() {
+        if (legCache != null && legCacheable && legMoves > 0) {
+            legCache.put(legKey, java.util.Arrays.copyOf(legHeadings, legMoves));
+        }
+    }
+    
+    /**
+     * Uses a distance field that was already computed for the same start position and no fly
+     * zones, e.g. by another drone flying the same map
+     * 
+     * @param homeField - distance field to the start position
+     */
+    void setHomeField(DistanceField homeField) {
+        this.homeField = homeField;
+    }
+    
     /**
      * Checks whether moving the drone from its current position to the next position will intersect with any buildings
      * 
@@ -122,14 +387,61 @@ public class Drone {
      * @return true if this drone movement intersect with any building, false otherwise
      */
     private boolean checkIntersectForAllBuildings(Position nextPos) {
-        var intersect = false;
-        for (Feature f : map.getNoFlyZones()) {
-            var p = (Polygon) f.geometry();
-            var lp = p.coordinates(); // Always going to have only 1 List<Point>
-            intersect = checkIntersect(lp.get(0), nextPos);
-            if (intersect) break;
+        return obstacles.intersects(currPos, nextPos);
+    }
+    
+    /**
+     * Adds a temporary no fly zone (e.g. an event closure). Can be called while the drone
+     * is flying, in which case the zone is avoided from the drone's next move onwards
+     * 
+     * @param noFlyZone - Feature object whose geometry is a Polygon
+     */
+    public void addNoFlyZone(Feature noFlyZone) {
+        pendingNoFlyZones.add(noFlyZone);
+    }
+    
+    /**
+     * Removes a sensor from the mission. Can be called while the drone is flying, in which
+     * case the drone stops heading to this sensor from its next move onwards
+     * 
+     * @param location - What3Words location of the sensor
+     */
+    public void dropSensor(String location) {
+        pendingDroppedSensors.add(location);
+    }
+    
+    /**
+     * Applies the map changes requested since the last move. Since the drone chooses its
+     * direction one move at a time from its current position, only the edges of the new
+     * zones, the distance field to the start position and the target sensor need to be updated
+     * for the rest of the flight to avoid them. The distance field is repaired around each new
+     * zone rather than computed again
+     * 
+     * @return true if the target sensor has to be recomputed, false otherwise
+     */
+    private boolean applyMapChanges() {
+        var retarget = false;
+        
+        Feature zone;
+        while ((zone = pendingNoFlyZones.poll()) != null) {
+            obstacles.add(zone);
+            if (homeField != null) homeField = homeField.repair(obstacles, new Obstacles(List.of(zone)));
+            legCacheable = false;
+            replay = null;
+        }
+        
+        String location;
+        while ((location = pendingDroppedSensors.poll()) != null) {
+            for (var it = sensorsToVisit.iterator(); it.hasNext();) {
+                var sensor = it.next();
+                if (sensor.getLocation().equals(location)) {
+                    it.remove();
+                    if (sensor == targetSensor) retarget = true;
+                    break;
+                }
+            }
         }
-        return intersect;
+        return retarget;
     }
     
     /**
@@ -153,20 +465,75 @@ public class Drone {
     /**
      * Moves the drone to the next position and updates the number of moves left
      * 
-     * @param nextPos - the position that the drone will move to
+     * @param nextPos   - the position that the drone will move to
+     * @param direction - direction of the move
      */
-    private void move(Position nextPos) {
+    void move(Position nextPos, int direction) {
         currPos = nextPos;
         moves--; 
+        metresFlown += FRAME.stepMetres(direction);
+        visitedCells.put(DistanceField.key(nextPos), leg);
+        legHeadings[legMoves++] = (byte) (direction / 10);
     }
     
     /**
-     * Removes sensor from sensorsToVisit list and adds it to visitedSensors list
+     * Starts a new leg, from which the cells visited so far no longer count as a loop
+     */
+    void startLeg() {
+        leg++;
+        legMoves = 0;
+        visitedCells.put(DistanceField.key(currPos), leg);
+        
+        if (FlightEvents.ENABLED) {
+            legEvent = new FlightEvents.Leg();
+            legStartMove = flightPath.getNoOfMoves();
+            legBlockedHeadings = 0;
+            legLoopsAvoided = 0;
+            legEvent.begin();
+        }
+    }
+    
+    /**
+     * Records the end of the current leg for the flight recorder
      * 
+     * @param target  - location of the sensor the leg was heading to, or "start" for the way back
+     * @param reached - whether the target was reached
      */
-    private void visit() {
-        sensorsToVisit.remove(targetSensor);
-        visitedSensors.add(targetSensor);
+    private void endLeg(String target, boolean reached) {
+        if (!FlightEvents.ENABLED || legEvent == null) return;
+        legEvent.target = target;
+        legEvent.reached = reached;
+        legEvent.moves = flightPath.getNoOfMoves() - legStartMove;
+        legEvent.blockedHeadings = legBlockedHeadings;
+        legEvent.loopsAvoided = legLoopsAvoided;
+        legEvent.commit();
+        legEvent = null;
+    }
+    
+    /**
+     * Checks whether moving to a position would bring the drone back to a cell it already
+     * visited during the current leg, whatever the length of the loop
+     * 
+     * @param nextPos - the intended next position of the drone
+     * @return true if the drone would be flying in a loop, false otherwise
+     */
+    boolean revisits(Position nextPos) {
+        return visitedCells.get(DistanceField.key(nextPos), -1) == leg;
+    }
+    
+    /**
+     * Removes sensor from sensorsToVisit and adds it to visitedSensors list, and publishes
+     * the visit to the subscribers (blocking while a subscriber's buffer is full)
+     * 
+     * @param sensor - sensor read by the drone
+     */
+    private void visit(Sensor sensor) throws IOException, InterruptedException {
+        sensorsToVisit.remove(sensor);
+        visitedSensors.add(sensor);
+        
+        if (visitPublisher != null) {
+            visitPublisher.submit(new VisitEvent(sensor, sensor.toPosition(), getMovesUsed()));
+        }
     }
     
     /**
@@ -177,7 +544,7 @@ public class Drone {
      * @param targetPos - destination position
      * @return the direction that brings the drone closest to the destination position
      */
-    private int getBestDirection(Position targetPos) throws IOException, InterruptedException {
+    int getBestDirection(Position targetPos) throws IOException, InterruptedException {
         // Get direction towards the closest sensor
         var direction = currPos.getDirection(targetPos);
         
@@ -186,20 +553,21 @@ public class Drone {
         
         // If going towards this direction intersects buildings or is outside the play area, we need a new direction
         if (checkIntersectForAllBuildings(nextPos) || !nextPos.inConfinementArea()) {
+            if (FlightEvents.ENABLED) legBlockedHeadings++;
             double minDistance = 100000;
             int index = -1;
             
+            // Find all the blocked directions at once
+            var blocked = obstacles.blockedHeadings(currPos);
+            
             // Loop through all possible directions
             for (int i = 0; i < 360; i += 10) {
                 
-                // Try to move towards this direction
-                nextPos = currPos.nextPosition(i);
-                
                 // If going towards this direction intersects with buildings or is outside play area, ignore this direction
-                if(!checkIntersectForAllBuildings(nextPos) && nextPos.inConfinementArea()) {
+                if ((blocked & (1L << (i / 10))) == 0) {
                 
                     // Calculate distance between this position and the closest sensor
-                    var currDist = nextPos.distanceBetween(targetPos);
+                    var currDist = currPos.nextPosition(i).distanceBetween(targetPos);
                     if (currDist < minDistance) {
                         minDistance = currDist;
                         index = i;
@@ -212,6 +580,60 @@ public class Drone {
         return direction;
     }
     
+    /**
+     * Gets the direction that descends the distance field towards the start position, i.e. the valid
+     * direction leading to the cell with the fewest moves left to get home, breaking ties by the
+     * Euclidean distance to the start position
+     * 
+     * @param startPos - start position of the drone
+     * @return the direction that brings the drone closest to the start position
+     */
+    private int getHomeDirection(Position startPos) throws IOException, InterruptedException {
+        int minMoves = Integer.MAX_VALUE;
+        double minDistance = 100000;
+        int index = -1;
+        
+        var blocked = obstacles.blockedHeadings(currPos);
+        for (int i = 0; i < 360; i += 10) {
+            if ((blocked & (1L << (i / 10))) != 0) continue;
+            var nextPos = currPos.nextPosition(i);
+            
+            var movesToHome = homeField.getMovesToHome(nextPos);
+            if (movesToHome < 0) continue;
+            
+            var currDist = nextPos.distanceBetween(startPos);
+            if (movesToHome < minMoves || (movesToHome == minMoves && currDist < minDistance)) {
+                minMoves = movesToHome;
+                minDistance = currDist;
+                index = i;
+            }
+        }
+        
+        // Cell never reached by the distance field, fall back to the greedy direction
+        if (index == -1) return getBestDirection(startPos);
+        return index;
+    }
+    
+    /**
+     * Checks whether the drone has to stop visiting sensors to have enough moves, and metres
+     * within its budget, to get home after moving to the next position. A cell the distance
+     * field never reached counts as the straight line home, which no path can beat
+     * 
+     * @param nextPos   - the intended next position of the drone
+     * @param direction - direction of the move to nextPos
+     * @param startPos  - start position of the drone
+     * @return true if the drone should head back to the start position, false otherwise
+     */
+    private boolean mustReturn(Position nextPos, int direction, Position startPos) {
+        var movesToHome = homeField.getMovesToHome(nextPos);
+        if (movesToHome < 0) movesToHome = (int) Math.ceil(nextPos.distanceBetween(startPos) / 0.0003);
+        if (movesToHome + RETURN_MARGIN > moves - 1) return true;
+        
+        // The way home is at most movesToHome of the longest moves
+        var metresToHome = (movesToHome + RETURN_MARGIN) * FRAME.getMaxStepMetres();
+        return metresFlown + FRAME.stepMetres(direction) + metresToHome > maxMetres;
+    }
+    
     /**
      * Gets the next best direction: first, try getting the opposite of the input direction
      * If moving towards this direction enters no fly zones or leaves the confinement area,
@@ -222,39 +644,51 @@ public class Drone {
      */
     private int getAnotherDirection(int direction) {               
         var dir = oppositeDirection(direction);
-        var nextPos = currPos.nextPosition(dir); 
-        while (checkIntersectForAllBuildings(nextPos) || !nextPos.inConfinementArea() || dir == direction) {
-            dir = App.rnd.nextInt(36) * 10;
-            nextPos = currPos.nextPosition(dir);
+        var blocked = obstacles.blockedHeadings(currPos);
+        while ((blocked & (1L << (dir / 10))) != 0 || dir == direction) {
+            dir = rnd.nextInt(36) * 10;
+        }
+        legCacheable = false;
+        
+        if (FlightEvents.ENABLED) {
+            var event = new FlightEvents.Escape();
+            event.direction = direction;
+            event.chosenDirection = dir;
+            event.lng = currPos.getLng();
+            event.lat = currPos.getLat();
+            event.commit();
         }
         return dir;
     }
     
     /**
-     * Check whether or not the drone is stuck in a loop
+     * Gets the valid direction closest to the destination that does not bring the drone back to a
+     * cell visited during the current leg. If every valid direction does, get another direction
      * 
-     * @param currDir - drone's current direction
-     * @return true if drone is stuck, false otherwise
+     * @param targetPos - destination position
+     * @param direction - direction that would close a loop
+     * @return direction that escapes the loop
      */
-    private boolean checkStuck(int currDir) {
-        var size = flightPathDirections.size();
-        var last3Directions = new int[3];
-        var ctr = 2;
+    int getLoopFreeDirection(Position targetPos, int direction) {
+        if (FlightEvents.ENABLED) legLoopsAvoided++;
+        double minDistance = 100000;
+        int index = -1;
         
-        // Get the last three directions that the drone moved to
-        for (int i = 0; i < 3; i++) {
-            var curr = flightPathDirections.get(size-(1+i));
-            last3Directions[ctr] = curr;
-            ctr--;
+        var blocked = obstacles.blockedHeadings(currPos);
+        for (int i = 0; i < 360; i += 10) {
+            if ((blocked & (1L << (i / 10))) != 0) continue;
+            var nextPos = currPos.nextPosition(i);
+            if (revisits(nextPos)) continue;
+            
+            var currDist = nextPos.distanceBetween(targetPos);
+            if (currDist < minDistance) {
+                minDistance = currDist;
+                index = i;
+            }
         }
         
-        var bool1 = last3Directions[0] == last3Directions[2]; 
-        var bool2 = last3Directions[1] == currDir;
-        var bool3 = oppositeDirection(last3Directions[0]) == last3Directions[1];
-        var bool4 = oppositeDirection(last3Directions[2]) == currDir;
-        
-        if (bool1 && bool2 && bool3 && bool4) return true;
-        else return false;
+        if (index == -1) return getAnotherDirection(direction);
+        return index;
     }
      
     /**
@@ -281,6 +715,7 @@ public class Drone {
         System.out.println("DATE: " + map.getDay() + "/" + map.getMonth() + "/" + map.getYear());
         System.out.println("UNVISITED SENSORS: " + sensorsToVisit.size());
         System.out.println("MOVES: " + (150-moves));
+        System.out.println("LENGTH: " + Math.round(metresFlown) + "m");
         boolean backToInitial = false;
         if (currPos.closeToStart(startPos)) backToInitial = true;
         System.out.println("IS IT BACK TO STARTING POSITION?: " + backToInitial);
@@ -290,102 +725,120 @@ public class Drone {
      * Drone control algorithm
      */
     public void droneSimulator() throws IOException, InterruptedException {
-        // Initialize starting position and add to the flight path
-        flightPath.add(currPos);
-        
         // Get a copy of the initial position of the drone
         var startPos = currPos;
         
-        // Counter for output .txt file
-        var ctr = 1;
-        
         var visitSensorThisMove = false;
         
+        // Set when the remaining moves are only enough to get back to the start position
+        var returning = false;
+        startLeg();
+        
         // Get position of closest sensor to the drone's current position
-        var targetSensorPos = targetSensor.toPosition();
+        var targetSensorPos = aimFor(targetSensor);
         
         while(hasMoves()) {
-            if (hasSensorsToVisit()) {
+            // Target sensor has been dropped from the mission mid-flight
+            if (applyMapChanges()) visitSensorThisMove = true;
+            if (homeField == null) homeField = new DistanceField(obstacles, startPos);
+            
+            if (hasSensorsToVisit() && !returning) {
                 
-                // If drone visits a sensor this move, find the next closest target sensor
+                // If drone visits a sensor this move (or the target was dropped), find the next closest target sensor
                 if (visitSensorThisMove) {
-                    targetSensor = closestSensor();
-                    targetSensorPos = targetSensor.toPosition();
+                    targetSensor = nextTarget();
+                    targetSensorPos = aimFor(targetSensor);
                 }
                 
-                // Get direction towards the target sensor and move to it
-                var direction = getBestDirection(targetSensorPos);
-                //System.out.println(direction);
-                var nextPos = currPos.nextPosition(direction);
-                
-                // Check if moving to the next position causes the drone to be stuck
-                if (flightPathDirections.size() >= 3) {
-                    //int tryChangingSensors = 0;
-                    if (checkStuck(direction)) {
-                        direction = getAnotherDirection(direction);
-                        nextPos = currPos.nextPosition(direction);
+                // Replay the leg if it was flown before, otherwise get direction towards the target sensor
+                var direction = getCachedDirection(targetSensorPos);
+                if (direction < 0) {
+                    direction = getBestDirection(targetSensorPos);
+                    //System.out.println(direction);
+                    
+                    // Check if moving to the next position brings the drone back to where it has already been
+                    if (revisits(currPos.nextPosition(direction))) {
+                        direction = getLoopFreeDirection(targetSensorPos, direction);
                     }
                 }
+                var nextPos = currPos.nextPosition(direction);
                 
-                // Update drone's movement to log file
-                log += ctr + "," + currPos.getLng() + "," + currPos.getLat() + "," + direction + "," + nextPos.getLng() + "," + nextPos.getLat() + ",";
-                ctr++;
+                // Head back instead if this move would leave too few moves to get home
+                if (mustReturn(nextPos, direction, startPos)) {
+                    returning = true;
+                    endLeg(targetSensor.getLocation(), false);
+                    startLeg();
+                    continue;
+                }
                 
-                move(nextPos);
+                move(nextPos, direction);
 
-                // Store the direction performed by the drone
-                flightPathDirections.add(direction);
-                
-                // Store the position moved by the drone
-                flightPath.add(nextPos);
+                // Store the position and direction moved by the drone
+                flightPath.add(nextPos, direction);
                 
+                if (waypointOf != null) {
+                    // Read every sensor within range, and keep heading to the closest sensor otherwise
+                    var reads = visitAllInRange();
+                    visitSensorThisMove = reads != null;
+                    if (visitSensorThisMove) {
+                        flightPath.setLastRead(reads);
+                    } else if (tour == null) {
+                        targetSensor = closestSensor();
+                        targetSensorPos = aimFor(targetSensor);
+                    }
+                }
                 // If the target sensor is within distance to the drone, visit this sensor
-                if (nextPos.withinDistance(targetSensorPos)) {
+                else if (nextPos.withinDistance(targetSensorPos)) {
                     visitSensorThisMove = true;
-                    visit();
+                    visit(targetSensor);
                 } else {
                     visitSensorThisMove = false;       
                     
-                    // Check if we have another closer sensor and visit if within distance
-                    targetSensor = closestSensor();
-                    targetSensorPos = targetSensor.toPosition();
+                    // Check if we have another closer sensor and visit if within distance. A tour
+                    // is only left for a sensor in range, so only the sensors around are checked
+                    var closest = tour == null ? closestSensor() : closestSensorInRange(nextPos);
+                    if (closest != null) {
+                        targetSensor = closest;
+                        targetSensorPos = targetSensor.toPosition();
+                    }
                     if (nextPos.withinDistance(targetSensorPos)) {
                         visitSensorThisMove = true;
-                        visit();
+                        visit(targetSensor);
                     }
                 }
               
-                // Update drone's sensor visit to log file
-                var loc = "";
-                if (visitSensorThisMove) loc = targetSensor.getLocation();
-                else loc = "null";              
-                log += loc + "\n";
+                // Store the drone's sensor visit for the log file
+                if (visitSensorThisMove) {
+                    if (waypointOf == null) flightPath.setLastRead(targetSensor.getLocation());
+                    cacheLeg();
+                    endLeg(targetSensor.getLocation(), !sensorsToVisit.contains(targetSensor));
+                    startLeg();
+                }
                 
             } 
-            // If all sensors have been visited, go back to initial position
+            // If all sensors have been visited or moves are running out, go back to initial position
             else {
-                // Get direction to start position
-                var direction = getBestDirection(startPos);
+                // Get direction to start position by descending the distance field
+                var direction = getHomeDirection(startPos);
                 
-                if (checkStuck(direction)) {
-                    direction = getAnotherDirection(direction);
+                if (revisits(currPos.nextPosition(direction))) {
+                    direction = getLoopFreeDirection(startPos, direction);
                 }
                 
                 // Move towards this direction
                 var nextPos = currPos.nextPosition(direction);
                 
-                log += ctr + "," + currPos.getLng() + "," + currPos.getLat() + "," + direction + "," + nextPos.getLng() + "," + nextPos.getLat() + ",null\n";
-                ctr++;
-                
-                move(nextPos);
-                flightPathDirections.add(direction);
-                flightPath.add(nextPos); 
+                move(nextPos, direction);
+                flightPath.add(nextPos, direction);
                 
                 // If drone is close to its starting position, exit while loop
                 if (startPos.closeToStart(nextPos)) break;
             }
         }
-        printDronePerformance(startPos);
+        var homeward = returning || !hasSensorsToVisit();
+        endLeg(homeward ? "start" : targetSensor.getLocation(), homeward && currPos.closeToStart(startPos));
+        if (visitPublisher != null) visitPublisher.close();
+        if (printPerformance) printDronePerformance(startPos);
     }
             
 }
@@ -0,0 +1,97 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class FixtureServer {
+
+    // Directories laid out like the web server (maps/, words/, buildings/). A file is served from
+    // the first directory that has it, so a variant only holds the files it changes
+    private final Path[] roots;
+    private HttpServer server;
+
+    public FixtureServer(Path... roots) {
+        this.roots = new Path[roots.length];
+        for (int i = 0; i < roots.length; i++) this.roots[i] = roots[i].toAbsolutePath().normalize();
+    }
+
+    /**
+     * Parses fixtures directories separated by the path separator, e.g. fixtures-buildings:fixtures
+     *
+     * @param dirs - fixtures directories, the first ones taking precedence
+     * @return Array of the directories
+     */
+    public static Path[] parseRoots(String dirs) {
+        var parts = dirs.split(java.io.File.pathSeparator);
+        var roots = new Path[parts.length];
+        for (int i = 0; i < parts.length; i++) roots[i] = Path.of(parts[i]);
+        return roots;
+    }
+
+    /**
+     * Serves fixtures directories over HTTP until the process is killed
+     *
+     * @param args - fixtures directories separated by the path separator, port to listen on
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        var fixtureServer = new FixtureServer(parseRoots(args[0]));
+        fixtureServer.start(Integer.parseInt(args[1]));
+        System.out.println("Serving " + args[0] + " on port " + fixtureServer.getPort());
+    }
+
+    /**
+     * Starts serving the fixtures
+     *
+     * @param port - port to listen on, 0 for any free port
+     * @throws IOException
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            var file = find(exchange.getRequestURI().getPath().substring(1));
+            if (file == null || !Files.isRegularFile(file)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            var bytes = Files.readAllBytes(file);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Finds a file in the first directory that has it
+     *
+     * @param path - path relative to the fixtures directories
+     * @return the file, or null if no directory has it
+     */
+    Path find(String path) {
+        for (Path root : roots) {
+            var file = root.resolve(path).normalize();
+            if (file.startsWith(root) && Files.exists(file)) return file;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,143 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+
+public class FlightEvents {
+
+    // Set with -Daqmaps.jfr=true. When false, the JIT removes every guarded block, so no event is
+    // allocated and the planner runs as if the events did not exist
+    public static final boolean ENABLED = Boolean.getBoolean("aqmaps.jfr");
+
+    private FlightEvents() {
+    }
+
+    @Name("aqmaps.Leg")
+    @Label("Drone Leg")
+    @Category("Aqmaps")
+    @Description("Moves flown between two sensor visits, or from the last visit back to the start position")
+    public static class Leg extends Event {
+        @Label("Target")
+        public String target;
+
+        @Label("Reached")
+        public boolean reached;
+
+        @Label("Moves")
+        public int moves;
+
+        @Label("Blocked Headings")
+        @Description("Moves of the leg where the direct heading to the target crossed a building or left the area")
+        public int blockedHeadings;
+
+        @Label("Loops Avoided")
+        public int loopsAvoided;
+    }
+
+    @Name("aqmaps.Escape")
+    @Label("Escape Direction")
+    @Category("Aqmaps")
+    @Description("Direction drawn by getAnotherDirection when no better direction was found")
+    public static class Escape extends Event {
+        @Label("Direction")
+        public int direction;
+
+        @Label("Chosen Direction")
+        public int chosenDirection;
+
+        @Label("Longitude")
+        public double lng;
+
+        @Label("Latitude")
+        public double lat;
+    }
+
+    @Name("aqmaps.Fetch")
+    @Label("HTTP Fetch")
+    @Category("Aqmaps")
+    @Description("Request to the web server, from sending it until its body has been read and closed")
+    public static class Fetch extends Event {
+        @Label("Endpoint")
+        public String endpoint;
+
+        @Label("Attempts")
+        public int attempts;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("aqmaps.FileWrite")
+    @Label("File Write")
+    @Category("Aqmaps")
+    public static class FileWrite extends Event {
+        @Label("File")
+        public String file;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    /**
+     * Starts recording the events of this class only, to be dumped once the flight is written
+     *
+     * @return the started recording
+     */
+    public static Recording startRecording() {
+        var recording = new Recording();
+        recording.enable(Leg.class);
+        recording.enable(Escape.class);
+        recording.enable(Fetch.class);
+        recording.enable(FileWrite.class);
+        recording.start();
+        return recording;
+    }
+
+    /**
+     * Wraps a response body so that the fetch event is committed with the number of bytes read
+     * when the body is closed
+     *
+     * @param in    - response body
+     * @param event - started fetch event
+     * @return stream to hand to the caller instead of the body
+     */
+    static InputStream countBytes(InputStream in, Fetch event) {
+        return new FilterInputStream(in) {
+            private boolean closed;
+
+            @Override
+            public int read() throws IOException {
+                var b = super.read();
+                if (b >= 0) event.bytes++;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                var n = super.read(buf, off, len);
+                if (n > 0) event.bytes += n;
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (!closed) {
+                    closed = true;
+                    event.commit();
+                }
+            }
+        };
+    }
+}
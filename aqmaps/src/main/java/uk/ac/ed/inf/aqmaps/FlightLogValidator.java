@@ -0,0 +1,193 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+
+public class FlightLogValidator {
+
+    // Tolerance when comparing coordinates written to the log
+    private static final double EPSILON = 1e-9;
+
+    private final Obstacles obstacles;
+
+    public FlightLogValidator(Obstacles obstacles) {
+        this.obstacles = obstacles;
+    }
+
+    public static class Result {
+        public final Path file;
+        public final int moves;
+        public final List<String> violations;
+
+        public Result(Path file, int moves, List<String> violations) {
+            this.file = file;
+            this.moves = moves;
+            this.violations = violations;
+        }
+
+        public boolean isValid() {
+            return violations.isEmpty();
+        }
+    }
+
+    /**
+     * Validates every flightpath-*.txt file found in the given files and directories in parallel,
+     * prints the violations, and exits with status 1 if any log is illegal
+     *
+     * @param args - no-fly-zones.geojson file, followed by log files or directories of log files
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        var start = System.nanoTime();
+        var noFlyZones = FeatureCollection.fromJson(Files.readString(Path.of(args[0]))).features();
+        var validator = new FlightLogValidator(new Obstacles(noFlyZones));
+
+        var logs = new ArrayList<Path>();
+        for (int i = 1; i < args.length; i++) {
+            try (Stream<Path> paths = Files.walk(Path.of(args[i]))) {
+                logs.addAll(paths.filter(FlightLogValidator::isFlightLog).collect(Collectors.toList()));
+            }
+        }
+
+        List<Result> results;
+        try {
+            results = logs.parallelStream().map(validator::validate).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        var invalid = 0;
+        for (Result result : results) {
+            if (result.isValid()) continue;
+            invalid++;
+            System.out.println(result.file + ": " + result.violations.size() + " violation(s)");
+            for (String violation : result.violations) System.out.println("  " + violation);
+        }
+        System.out.println("Validated " + results.size() + " flight logs, " + invalid + " illegal, in "
+                + (System.nanoTime() - start) / 1000000 + "ms");
+        if (invalid > 0) System.exit(1);
+    }
+
+    private static boolean isFlightLog(Path path) {
+        var name = path.getFileName().toString();
+        return name.startsWith("flightpath-") && name.endsWith(".txt") && Files.isRegularFile(path);
+    }
+
+    /**
+     * Validates a flight log, using the readings-*.geojson file of the same date (if it exists
+     * next to the log) to know where the sensors are
+     *
+     * @param log - path of the flightpath-*.txt file
+     * @return Result of the validation
+     */
+    public Result validate(Path log) {
+        try {
+            var lines = Files.readAllLines(log);
+            var readings = log.resolveSibling(log.getFileName().toString()
+                    .replace("flightpath-", "readings-").replace(".txt", ".geojson"));
+            java.util.Map<String, Position> sensors = null;
+            if (Files.isRegularFile(readings)) sensors = readSensorPositions(readings);
+            return new Result(log, lines.size(), validate(lines, sensors));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the position of every sensor of a readings-*.geojson file
+     *
+     * @param readings - path of the readings file
+     * @return positions keyed by What3Words location
+     * @throws IOException
+     */
+    private static java.util.Map<String, Position> readSensorPositions(Path readings) throws IOException {
+        var sensors = new HashMap<String, Position>();
+        for (Feature f : FeatureCollection.fromJson(Files.readString(readings)).features()) {
+            if (f.geometry() instanceof Point && f.hasProperty("location")) {
+                var p = (Point) f.geometry();
+                sensors.put(f.getStringProperty("location"), new Position(p.longitude(), p.latitude()));
+            }
+        }
+        return sensors;
+    }
+
+    /**
+     * Checks the lines of a flight log against the rules of the drone: at most 150 moves of 0.0003
+     * degrees in a direction multiple of 10, each starting where the previous one ended, staying in
+     * the confinement area, not crossing no fly zones, and reading sensors within 0.0002 degrees
+     *
+     * @param lines   - lines of the flight log
+     * @param sensors - sensor positions keyed by What3Words location, null to skip the read checks
+     * @return description of every violation, empty if the log is legal
+     */
+    public List<String> validate(List<String> lines, java.util.Map<String, Position> sensors) {
+        if (lines.isEmpty()) return Collections.singletonList("empty flight log");
+
+        var violations = new ArrayList<String>();
+        if (lines.size() > 150) violations.add(lines.size() + " moves, more than 150");
+
+        Position prev = null;
+        for (int n = 1; n <= lines.size(); n++) {
+            var fields = lines.get(n-1).split(",");
+            if (fields.length != 7) {
+                violations.add("move " + n + ": expected 7 fields, got " + fields.length);
+                prev = null;
+                continue;
+            }
+
+            Position from, to;
+            int direction;
+            try {
+                if (Integer.parseInt(fields[0]) != n) violations.add("move " + n + ": numbered " + fields[0]);
+                from = new Position(Double.parseDouble(fields[1]), Double.parseDouble(fields[2]));
+                direction = Integer.parseInt(fields[3]);
+                to = new Position(Double.parseDouble(fields[4]), Double.parseDouble(fields[5]));
+            } catch (NumberFormatException e) {
+                violations.add("move " + n + ": malformed number " + e.getMessage());
+                prev = null;
+                continue;
+            }
+
+            if (prev != null && prev.distanceBetween(from) > EPSILON) {
+                violations.add("move " + n + ": does not start where move " + (n-1) + " ended");
+            }
+            if (direction < 0 || direction >= 360 || direction % 10 != 0) {
+                violations.add("move " + n + ": direction " + direction + " is not a multiple of 10 in [0, 350]");
+            } else if (from.nextPosition(direction).distanceBetween(to) > EPSILON) {
+                violations.add("move " + n + ": is not a 0.0003 degree move in direction " + direction);
+            }
+            if (!from.inConfinementArea() || !to.inConfinementArea()) {
+                violations.add("move " + n + ": leaves the confinement area");
+            }
+            if (obstacles.intersects(from, to)) {
+                violations.add("move " + n + ": crosses a no fly zone");
+            }
+
+            // Several sensors read by the same move are separated by semicolons
+            if (sensors != null && !fields[6].equals("null")) {
+                for (String location : fields[6].split(";")) {
+                    var sensorPos = sensors.get(location);
+                    if (sensorPos == null) {
+                        violations.add("move " + n + ": reads unknown sensor " + location);
+                    } else if (!to.withinDistance(sensorPos)) {
+                        violations.add("move " + n + ": reads " + location + " from further than 0.0002 degrees");
+                    }
+                }
+            }
+            prev = to;
+        }
+        return violations;
+    }
+}
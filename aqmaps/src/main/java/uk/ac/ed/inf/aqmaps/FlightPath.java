@@ -0,0 +1,118 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FlightPath {
+
+    // Positions visited by the drone, the first one being the start position
+    private double[] lngs;
+    private double[] lats;
+    private int noOfPositions;
+
+    // Direction of move i divided by 10, and the location of the sensor read during move i (or null)
+    private byte[] headings;
+    private String[] reads;
+
+    public FlightPath(Position start) {
+        this.lngs = new double[160];
+        this.lats = new double[160];
+        this.headings = new byte[160];
+        this.reads = new String[160];
+        this.lngs[0] = start.getLng();
+        this.lats[0] = start.getLat();
+        this.noOfPositions = 1;
+    }
+
+    /**
+     * Records a move of the drone
+     *
+     * @param nextPos   - the position the drone moved to
+     * @param direction - direction of the move, a multiple of 10
+     */
+    public void add(Position nextPos, int direction) {
+        if (noOfPositions == lngs.length) {
+            var capacity = 2 * lngs.length;
+            lngs = Arrays.copyOf(lngs, capacity);
+            lats = Arrays.copyOf(lats, capacity);
+            headings = Arrays.copyOf(headings, capacity);
+            reads = Arrays.copyOf(reads, capacity);
+        }
+        lngs[noOfPositions] = nextPos.getLng();
+        lats[noOfPositions] = nextPos.getLat();
+        headings[noOfPositions - 1] = (byte) (direction / 10);
+        noOfPositions++;
+    }
+
+    /**
+     * Records the sensor read during the last move
+     *
+     * @param location - What3Words location of the sensor
+     */
+    public void setLastRead(String location) {
+        reads[noOfPositions - 2] = location;
+    }
+
+    public int getNoOfPositions() {
+        return noOfPositions;
+    }
+
+    public int getNoOfMoves() {
+        return noOfPositions - 1;
+    }
+
+    public double getLng(int i) {
+        return lngs[i];
+    }
+
+    public double getLat(int i) {
+        return lats[i];
+    }
+
+    /**
+     * Gets the direction of a move
+     *
+     * @param move - index of the move, 0 being the first move
+     * @return direction of the move
+     */
+    public int getDirection(int move) {
+        return headings[move] * 10;
+    }
+
+    /**
+     * View of the positions as a list, without copying the coordinates
+     *
+     * @return List of positions, created on access
+     */
+    public List<Position> asPositions() {
+        return new AbstractList<Position>() {
+            @Override
+            public Position get(int i) {
+                if (i < 0 || i >= noOfPositions) throw new IndexOutOfBoundsException(i);
+                return new Position(lngs[i], lats[i]);
+            }
+
+            @Override
+            public int size() {
+                return noOfPositions;
+            }
+        };
+    }
+
+    /**
+     * Writes the flight path in the format of the output .txt file: one line per move with
+     * its number, start position, direction, end position and the sensor read (or null)
+     *
+     * @param out - StringBuilder to write to
+     */
+    public void writeLog(StringBuilder out) {
+        for (int i = 0; i < noOfPositions - 1; i++) {
+            out.append(i + 1).append(',')
+                .append(lngs[i]).append(',').append(lats[i]).append(',')
+                .append(getDirection(i)).append(',')
+                .append(lngs[i+1]).append(',').append(lats[i+1]).append(',')
+                .append(reads[i] == null ? "null" : reads[i]).append('\n');
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+public class HeatmapSubscriber implements Flow.Subscriber<VisitEvent> {
+
+    // Cells per side of the grid splitting the drone confinement area, like the heatmap
+    private static final int GRID = 10;
+
+    // Inverse distance weighted sums of the readings and of the weights, per cell (row-major, north first)
+    private final double[] weightedReadings = new double[GRID * GRID];
+    private final double[] weights = new double[GRID * GRID];
+
+    // Readings written as one GeoJSON feature per line, as they arrive
+    private final BufferedWriter readingsWriter;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private Flow.Subscription subscription;
+    private volatile Throwable error;
+
+    public HeatmapSubscriber(Path readingsFile) throws IOException {
+        this.readingsWriter = Files.newBufferedWriter(readingsFile);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        // Ask for one visit at a time: once the publisher's buffer is full, the drone waits for the disk
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(VisitEvent visit) {
+        try {
+            var sensor = visit.getSensor();
+            var pos = visit.getPosition();
+
+            var feature = Feature.fromGeometry(Point.fromLngLat(pos.getLng(), pos.getLat()));
+            sensor.addProperties(feature, true);
+            feature.addNumberProperty("move", visit.getMoveIndex());
+            readingsWriter.write(feature.toJson());
+            readingsWriter.newLine();
+            readingsWriter.flush();
+
+            if (sensor.hasValidReading()) addReading(pos, Double.parseDouble(sensor.getReading()));
+            subscription.request(1);
+        } catch (IOException e) {
+            subscription.cancel();
+            onError(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        closeWriter();
+        done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+        closeWriter();
+        done.countDown();
+    }
+
+    private void closeWriter() {
+        try {
+            readingsWriter.close();
+        } catch (IOException e) {
+            if (error == null) error = e;
+        }
+    }
+
+    /**
+     * Waits until the drone has finished its flight and every visit has been processed
+     *
+     * @throws IOException if writing the readings failed
+     * @throws InterruptedException
+     */
+    public void awaitCompletion() throws IOException, InterruptedException {
+        done.await();
+        if (error instanceof IOException) throw (IOException) error;
+        if (error != null) throw new IOException(error);
+    }
+
+    /**
+     * Adds a reading to every cell, weighted by the inverse of the squared distance between
+     * the sensor and the centre of the cell
+     *
+     * @param pos     - position of the sensor
+     * @param reading - air quality reading
+     */
+    private synchronized void addReading(Position pos, double reading) {
+        var diffLng = (Position.MAX_LNG - Position.MIN_LNG) / GRID;
+        var diffLat = (Position.MAX_LAT - Position.MIN_LAT) / GRID;
+        for (int row = 0; row < GRID; row++) {
+            for (int col = 0; col < GRID; col++) {
+                var centre = new Position(Position.MIN_LNG + (col + 0.5) * diffLng, Position.MAX_LAT - (row + 0.5) * diffLat);
+                var dist = centre.distanceBetween(pos);
+                var w = 1 / Math.max(dist * dist, 1e-12);
+                weightedReadings[row * GRID + col] += w * reading;
+                weights[row * GRID + col] += w;
+            }
+        }
+    }
+
+    /**
+     * Gets the interpolated reading of a cell
+     *
+     * @param row - row of the cell, 0 being the northernmost
+     * @param col - column of the cell, 0 being the westernmost
+     * @return interpolated reading, or NaN if no valid reading has arrived yet
+     */
+    public synchronized double getCellValue(int row, int col) {
+        var i = row * GRID + col;
+        return weights[i] == 0 ? Double.NaN : weightedReadings[i] / weights[i];
+    }
+
+    /**
+     * Outputs the current interpolated heatmap in the format of the heatmap module
+     *
+     * @return FeatureCollection of the cells that have a value
+     */
+    public FeatureCollection getHeatmap() {
+        var diffLng = (Position.MAX_LNG - Position.MIN_LNG) / GRID;
+        var diffLat = (Position.MAX_LAT - Position.MIN_LAT) / GRID;
+        var features = new ArrayList<Feature>();
+        for (int row = 0; row < GRID; row++) {
+            for (int col = 0; col < GRID; col++) {
+                var value = getCellValue(row, col);
+                if (Double.isNaN(value)) continue;
+
+                var lng = Position.MIN_LNG + col * diffLng;
+                var lat = Position.MAX_LAT - row * diffLat;
+                var pt1 = Point.fromLngLat(lng, lat);
+                var pt2 = Point.fromLngLat(lng + diffLng, lat);
+                var pt3 = Point.fromLngLat(lng + diffLng, lat - diffLat);
+                var pt4 = Point.fromLngLat(lng, lat - diffLat);
+                var f = Feature.fromGeometry(Polygon.fromLngLats(Arrays.asList(Arrays.asList(pt1, pt2, pt3, pt4, pt1))));
+
+                var rgbString = Sensor.getRGBString(value);
+                f.addStringProperty("fill", rgbString);
+                f.addStringProperty("rgb-string", rgbString);
+                f.addNumberProperty("fill-opacity", 0.75);
+                features.add(f);
+            }
+        }
+        return FeatureCollection.fromFeatures(features);
+    }
+}
@@ -0,0 +1,285 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+public class HilbertTour {
+
+    // Cells of the curve along each side of the bounding box of the sensors: 2^16, far finer
+    // than the distance at which a sensor can be read
+    private static final int ORDER = 16;
+
+    // Sensors reordered together by the local search, set with -Daqmaps.hilbert.window
+    public static final int WINDOW = Integer.getInteger("aqmaps.hilbert.window", 32);
+
+    // Passes of the local search over the whole tour, alternating the window boundaries
+    private static final int MAX_PASSES = 8;
+
+    // Tour as coordinates, with the start position at both ends, and the sensor at every other
+    // index (-1 for the start position)
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] sensorIndices;
+
+    private HilbertTour(int length) {
+        xs = new double[length];
+        ys = new double[length];
+        sensorIndices = new int[length];
+    }
+
+    /**
+     * Orders the sensors along a Hilbert curve over their bounding box, so that sensors close to
+     * each other are mostly close in the tour, then shortens the tour by local search within
+     * windows of consecutive sensors, running the windows of a pass in parallel
+     *
+     * @param start   - start and end position of the tour
+     * @param sensors - sensors to order, with their coordinates already known
+     * @param window  - number of consecutive sensors reordered together, 0 to skip the local search
+     * @return the sensors in the order of the tour
+     */
+    public static List<Sensor> plan(Position start, List<Sensor> sensors, int window) throws IOException, InterruptedException {
+        var n = sensors.size();
+        var positions = new Position[n];
+        for (int i = 0; i < n; i++) positions[i] = sensors.get(i).toPosition();
+
+        var tour = fromCurve(start, positions);
+        if (window > 2) tour.refine(window);
+
+        var ordered = new ArrayList<Sensor>(n);
+        for (int i = 1; i <= n; i++) ordered.add(sensors.get(tour.sensorIndices[i]));
+        return ordered;
+    }
+
+    private static HilbertTour fromCurve(Position start, Position[] positions) {
+        var n = positions.length;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (Position p : positions) {
+            minX = Math.min(minX, p.getLng());
+            minY = Math.min(minY, p.getLat());
+            maxX = Math.max(maxX, p.getLng());
+            maxY = Math.max(maxY, p.getLat());
+        }
+        // Same scale along both axes, so that the curve does not stretch the distances
+        var side = Math.max(maxX - minX, maxY - minY);
+        var scale = side == 0 ? 0 : ((1 << ORDER) - 1) / side;
+
+        // Sort by curve index, packing the index of the sensor in the low bits of the key
+        var keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            var x = (int) ((positions[i].getLng() - minX) * scale);
+            var y = (int) ((positions[i].getLat() - minY) * scale);
+            keys[i] = (curveIndex(x, y) << 31) | i;
+        }
+        Arrays.sort(keys);
+
+        var tour = new HilbertTour(n + 2);
+        tour.set(0, start, -1);
+        for (int i = 0; i < n; i++) {
+            var sensor = (int) (keys[i] & Integer.MAX_VALUE);
+            tour.set(i + 1, positions[sensor], sensor);
+        }
+        tour.set(n + 1, start, -1);
+        return tour;
+    }
+
+    private void set(int i, Position pos, int sensor) {
+        xs[i] = pos.getLng();
+        ys[i] = pos.getLat();
+        sensorIndices[i] = sensor;
+    }
+
+    /**
+     * Gets the index of a cell along the Hilbert curve of order ORDER
+     *
+     * @param x - column of the cell
+     * @param y - row of the cell
+     * @return index of the cell along the curve, below 2^(2 * ORDER)
+     */
+    static long curveIndex(int x, int y) {
+        long index = 0;
+        for (int s = 1 << (ORDER - 1); s > 0; s >>= 1) {
+            var rx = (x & s) > 0 ? 1 : 0;
+            var ry = (y & s) > 0 ? 1 : 0;
+            index += (long) s * s * ((3 * rx) ^ ry);
+
+            // Rotate the quadrant so that the curve inside it starts and ends at the right corners
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                var t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Shortens the tour with 2-opt moves inside windows of consecutive positions. The first and
+     * last positions of a window are not moved, so the windows of a pass are independent and run
+     * in parallel; every other pass shifts the windows by half a window, so that their ends move too
+     *
+     * @param window - number of positions per window
+     */
+    private void refine(int window) {
+        var length = xs.length;
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            var offset = pass % 2 == 0 ? 0 : window / 2;
+            var noOfWindows = (length - 1 - offset + window - 2) / (window - 1);
+            var improved = IntStream.range(0, noOfWindows).parallel()
+                    .map(w -> {
+                        var from = offset + w * (window - 1);
+                        return twoOpt(from, Math.min(from + window - 1, length - 1)) ? 1 : 0;
+                    })
+                    .sum();
+            if (improved == 0 && pass > 0) break;
+        }
+    }
+
+    /**
+     * Applies 2-opt moves between two fixed positions of the tour until none shortens it
+     *
+     * @param first - index of the first fixed position
+     * @param last  - index of the last fixed position
+     * @return true if the tour changed, false otherwise
+     */
+    private boolean twoOpt(int first, int last) {
+        var changed = false;
+        var improved = true;
+        while (improved) {
+            improved = false;
+            for (int i = first + 1; i < last; i++) {
+                for (int j = i + 1; j < last; j++) {
+                    var before = distance(i - 1, i) + distance(j, j + 1);
+                    var after = distance(i - 1, j) + distance(i, j + 1);
+                    if (after < before - 1e-12) {
+                        reverse(i, j);
+                        improved = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    private double distance(int i, int j) {
+        var dx = xs[i] - xs[j];
+        var dy = ys[i] - ys[j];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private void reverse(int i, int j) {
+        while (i < j) {
+            swap(xs, i, j);
+            swap(ys, i, j);
+            var t = sensorIndices[i];
+            sensorIndices[i] = sensorIndices[j];
+            sensorIndices[j] = t;
+            i++;
+            j--;
+        }
+    }
+
+    private static void swap(double[] a, int i, int j) {
+        var t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
+    private double length() {
+        var length = 0.0;
+        for (int i = 0; i + 1 < xs.length; i++) length += distance(i, i + 1);
+        return length;
+    }
+
+    /**
+     * Compares the straight-line tours of the Hilbert ordering, with and without local search,
+     * against the straight-line nearest neighbour tour, on random sensors spread over the
+     * confinement area. Only the ordering is timed: neither tour is flown by a Drone, so the times
+     * leave out the moves, the no fly zones and the sensor readings of an actual flight
+     *
+     * Usage: seed [number of sensors...], by default 1000 10000 100000
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        var rnd = new Random(Long.parseLong(args[0]));
+        var sizes = new ArrayList<Integer>();
+        for (int i = 1; i < args.length; i++) sizes.add(Integer.parseInt(args[i]));
+        if (sizes.isEmpty()) sizes.addAll(Arrays.asList(1000, 10000, 100000));
+
+        var start = new Position(-3.188396, 55.944425);
+        for (int n : sizes) {
+            var positions = new Position[n];
+            for (int i = 0; i < n; i++) {
+                positions[i] = new Position(Position.MIN_LNG + rnd.nextDouble() * (Position.MAX_LNG - Position.MIN_LNG),
+                        Position.MIN_LAT + rnd.nextDouble() * (Position.MAX_LAT - Position.MIN_LAT));
+            }
+
+            var time = System.nanoTime();
+            var greedy = greedyLength(start, positions);
+            var greedyMs = (System.nanoTime() - time) / 1e6;
+
+            time = System.nanoTime();
+            var curve = fromCurve(start, positions);
+            var curveMs = (System.nanoTime() - time) / 1e6;
+            var curveLength = curve.length();
+
+            time = System.nanoTime();
+            curve.refine(WINDOW);
+            var refineMs = (System.nanoTime() - time) / 1e6;
+
+            System.out.println(String.format(Locale.ROOT,
+                    "%d sensors: nearest neighbour %.4f in %.1fms, hilbert %.4f in %.1fms, hilbert + local search %.4f in %.1fms",
+                    n, greedy, greedyMs, curveLength, curveMs, curve.length(), curveMs + refineMs));
+        }
+    }
+
+    /**
+     * Length of the straight-line tour that always heads to the closest sensor not visited yet.
+     * This is the order in which a greedy Drone picks its targets, without its moves of fixed
+     * length or its detours around no fly zones
+     */
+    private static double greedyLength(Position start, Position[] positions) {
+        var n = positions.length;
+        var xs = new double[n];
+        var ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = positions[i].getLng();
+            ys[i] = positions[i].getLat();
+        }
+
+        var length = 0.0;
+        double x = start.getLng(), y = start.getLat();
+        for (int left = n; left > 0; left--) {
+            var closest = 0;
+            var closestDist = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < left; i++) {
+                var dx = xs[i] - x;
+                var dy = ys[i] - y;
+                var dist = dx * dx + dy * dy;
+                if (dist < closestDist) {
+                    closestDist = dist;
+                    closest = i;
+                }
+            }
+            length += Math.sqrt(closestDist);
+            x = xs[closest];
+            y = ys[closest];
+
+            // Remove the visited sensor by moving the last unvisited one in its place
+            xs[closest] = xs[left - 1];
+            ys[closest] = ys[left - 1];
+        }
+        return length + Math.hypot(x - start.getLng(), y - start.getLat());
+    }
+}
@@ -1,23 +1,181 @@
 package uk.ac.ed.inf.aqmaps;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
 
 public class JsonParser {
-    
-    // Create a new HttpClient with default settings
-    public static final HttpClient client = HttpClient.newHttpClient();
-    
+
+    // Timeouts, retries and HTTP version, configurable with system properties. Negative retries
+    // and backoff are taken as 0, so that every request is sent at least once
+    private static final long CONNECT_TIMEOUT_MS = Long.getLong("aqmaps.http.connectTimeoutMs", 5000);
+    private static final long REQUEST_TIMEOUT_MS = Long.getLong("aqmaps.http.requestTimeoutMs", 10000);
+    private static final int MAX_RETRIES = Math.max(0, Integer.getInteger("aqmaps.http.retries", 3));
+    private static final long BACKOFF_MS = Math.max(0, Long.getLong("aqmaps.http.backoffMs", 100));
+    private static final HttpClient.Version VERSION =
+            HttpClient.Version.valueOf(System.getProperty("aqmaps.http.version", "HTTP_2"));
+
+    // Shared HttpClient, so that connections are kept alive and reused across requests
+    public static final HttpClient client = HttpClient.newBuilder()
+            .version(VERSION)
+            .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT_MS))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    // Latencies of successful requests, from sending the request to the end of the decoded body,
+    // per endpoint (maps, words, buildings)
+    private static final java.util.Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    public static java.util.Map<String, LatencyHistogram> getLatencies() {
+        return latencies;
+    }
+
     public static String readJson(String urlString) throws IOException, InterruptedException {
-        // Build an HTTP GET request and send it to the HTTP client
-        var request = HttpRequest.newBuilder().uri(URI.create(urlString)).build();
-        var response = client.send(request, BodyHandlers.ofString());
-            
         // Get the content as a string
-        var json = response.body();
-        return json;
+        try (var in = openStream(urlString)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Sends an HTTP GET request, retrying with jittered exponential backoff on connection
+     * errors, timeouts and server errors, and returns the (decompressed) response body. The whole
+     * body is read and decompressed within each attempt, so a body that stalls for longer than the
+     * request timeout, is cut short or is not valid gzip is retried like a failed request
+     *
+     * @param urlString - URL of the JSON document
+     * @return stream of the response body, to be closed by the caller
+     * @throws IOException if the request still fails after all retries or the status is a client error
+     * @throws InterruptedException
+     */
+    public static InputStream openStream(String urlString) throws IOException, InterruptedException {
+        // Build an HTTP GET request accepting compressed responses
+        var uri = URI.create(urlString);
+        var request = HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(Duration.ofMillis(REQUEST_TIMEOUT_MS))
+                .header("Accept-Encoding", "gzip")
+                .GET()
+                .build();
+
+        FlightEvents.Fetch event = null;
+        if (FlightEvents.ENABLED) {
+            event = new FlightEvents.Fetch();
+            event.endpoint = endpoint(uri);
+            event.begin();
+        }
+
+        IOException lastError = null;
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
+            if (attempt > 0) backoff(attempt);
+            if (event != null) event.attempts = attempt + 1;
+
+            var start = System.nanoTime();
+            HttpResponse<byte[]> response;
+            byte[] body;
+            try {
+                response = fetch(request);
+                body = response.statusCode() == 200 ? decode(response) : null;
+            } catch (IOException e) {
+                lastError = e;
+                continue;
+            }
+
+            var status = response.statusCode();
+            if (status == 200) {
+                latencies.computeIfAbsent(endpoint(uri), k -> new LatencyHistogram()).record(System.nanoTime() - start);
+                if (event != null) return FlightEvents.countBytes(new ByteArrayInputStream(body), event);
+                return new ByteArrayInputStream(body);
+            }
+
+            lastError = new IOException("HTTP " + status + " for " + urlString);
+
+            // Client errors (e.g. 404 for a missing date) will not succeed on retry
+            if (status >= 400 && status < 500 && status != 429) break;
+        }
+        if (event != null) event.commit();
+        throw lastError;
+    }
+
+    /**
+     * Waits before a retry: BACKOFF_MS doubled on every attempt, scaled by a random factor in [0.5, 1.5)
+     * so that concurrent clients do not retry in lockstep
+     *
+     * @param attempt - number of the retry, starting at 1
+     * @throws InterruptedException
+     */
+    private static void backoff(int attempt) throws InterruptedException {
+        var delay = BACKOFF_MS << Math.min(attempt - 1, 10);
+        var jitter = 0.5 + ThreadLocalRandom.current().nextDouble();
+        Thread.sleep((long) (delay * jitter));
+    }
+
+    /**
+     * Sends a request and reads the whole response body, within REQUEST_TIMEOUT_MS. The timeout of
+     * the request itself only runs until the headers are received
+     *
+     * @param request - HTTP request
+     * @return response with its body
+     * @throws IOException if the request fails, or the body is not read in time
+     * @throws InterruptedException
+     */
+    private static HttpResponse<byte[]> fetch(HttpRequest request) throws IOException, InterruptedException {
+        var future = client.sendAsync(request, BodyHandlers.ofByteArray());
+        try {
+            return future.get(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new HttpTimeoutException("body of " + request.uri() + " not received in " + REQUEST_TIMEOUT_MS + "ms");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static byte[] decode(HttpResponse<byte[]> response) throws IOException {
+        var encoding = response.headers().firstValue("Content-Encoding").orElse("");
+        if (!encoding.equalsIgnoreCase("gzip")) return response.body();
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(response.body()))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Gets the endpoint of a URL, i.e. the first segment of its path
+     *
+     * @param uri - URI of the request
+     * @return endpoint name (e.g. "maps")
+     */
+    private static String endpoint(URI uri) {
+        var path = uri.getPath();
+        if (path == null || path.length() < 2) return "/";
+        var end = path.indexOf('/', 1);
+        return end < 0 ? path.substring(1) : path.substring(1, end);
+    }
+
+    /**
+     * Print the latency histograms of every endpoint for debugging purposes
+     */
+    public static void printLatencies() {
+        for (var entry : latencies.entrySet()) {
+            System.out.println("HTTP /" + entry.getKey() + ": " + entry.getValue());
+        }
     }
 }
@@ -0,0 +1,60 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+
+    // Bucket i counts latencies in [2^i, 2^(i+1)) microseconds, the last bucket counts everything above
+    private static final int NO_OF_BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NO_OF_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    /**
+     * Records one latency, can be called concurrently
+     *
+     * @param nanos - latency in nanoseconds
+     */
+    public void record(long nanos) {
+        var micros = Math.max(1, nanos / 1000);
+        var bucket = Math.min(63 - Long.numberOfLeadingZeros(micros), NO_OF_BUCKETS - 1);
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMeanMillis() {
+        var n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket containing it
+     *
+     * @param p - percentile between 0 and 100
+     * @return estimated latency in milliseconds
+     */
+    public double getPercentileMillis(double p) {
+        var n = count.get();
+        if (n == 0) return 0;
+        var rank = (long) Math.ceil(p / 100 * n);
+        long seen = 0;
+        for (int i = 0; i < NO_OF_BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) return (1L << (i + 1)) / 1000.0;
+        }
+        return (1L << NO_OF_BUCKETS) / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + String.format(", mean=%.2fms, p50<=%.2fms, p99<=%.2fms",
+                getMeanMillis(), getPercentileMillis(50), getPercentileMillis(99));
+    }
+}
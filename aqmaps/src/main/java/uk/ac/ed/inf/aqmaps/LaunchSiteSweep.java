@@ -0,0 +1,162 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class LaunchSiteSweep {
+
+    private Map map;
+    private int seed;
+
+    public LaunchSiteSweep(Map map, int seed) throws IOException, InterruptedException {
+        this.map = map;
+        this.seed = seed;
+
+        // Resolve the sensor coordinates and the no fly zone edges once for all launch sites
+        for (Sensor sensor : map.getSensors()) sensor.toPosition();
+        map.getObstacles();
+    }
+
+    public static class Site {
+        public final Position start;
+        public final int sensorsVisited;
+        public final int movesUsed;
+        public final boolean backToStart;
+
+        public Site(Position start, int sensorsVisited, int movesUsed, boolean backToStart) {
+            this.start = start;
+            this.sensorsVisited = sensorsVisited;
+            this.movesUsed = movesUsed;
+            this.backToStart = backToStart;
+        }
+    }
+
+    /**
+     * Plans the day from each launch site in parallel and ranks the sites by sensors visited,
+     * then returning to the start position, then moves used
+     *
+     * Usage: DD MM YYYY seed port (spacing in degrees | file of "lat,lng" lines)
+     *
+     * @param args
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        var day = args[0];
+        var month = args[1];
+        var year = args[2];
+        var seed = Integer.parseInt(args[3]);
+        App.port = args[4];
+
+        var sweep = new LaunchSiteSweep(new Map(day, month, year), seed);
+        var candidates = Files.isRegularFile(Path.of(args[5]))
+                ? readCandidates(Path.of(args[5]))
+                : sweep.gridCandidates(Double.parseDouble(args[5]));
+
+        var start = System.nanoTime();
+        var ranking = sweep.run(candidates);
+        var millis = (System.nanoTime() - start) / 1000000;
+
+        var csv = new StringBuilder("rank,lat,lng,sensors_visited,moves_used,back_to_start\n");
+        for (int i = 0; i < ranking.size(); i++) {
+            var site = ranking.get(i);
+            csv.append(i + 1).append(',').append(site.start.getLat()).append(',').append(site.start.getLng())
+                    .append(',').append(site.sensorsVisited).append(',').append(site.movesUsed)
+                    .append(',').append(site.backToStart).append('\n');
+        }
+        WriteFiles.writeToFile("launch-sites-" + day + "-" + month + "-" + year + ".csv", csv.toString());
+
+        System.out.println("Planned " + ranking.size() + " launch sites in " + millis + "ms");
+        if (!ranking.isEmpty()) {
+            var best = ranking.get(0);
+            System.out.println("Best site: " + best.start.getLat() + "," + best.start.getLng() + " ("
+                    + best.sensorsVisited + " sensors, " + best.movesUsed + " moves)");
+        }
+    }
+
+    /**
+     * Reads candidate launch sites from a file with one "lat,lng" pair per line
+     *
+     * @param file - path of the file
+     * @return List of positions
+     * @throws IOException
+     */
+    private static List<Position> readCandidates(Path file) throws IOException {
+        var candidates = new ArrayList<Position>();
+        for (String line : Files.readAllLines(file)) {
+            if (line.isBlank()) continue;
+            var fields = line.split(",");
+            candidates.add(new Position(Double.parseDouble(fields[1].trim()), Double.parseDouble(fields[0].trim())));
+        }
+        return candidates;
+    }
+
+    /**
+     * Generates a grid of launch sites over the bounding box of the confinement area, keeping the
+     * sites that Position.inConfinementArea accepts
+     *
+     * @param spacing - distance between neighbouring sites in degrees
+     * @return List of positions
+     */
+    public List<Position> gridCandidates(double spacing) {
+        var candidates = new ArrayList<Position>();
+        var rows = (int) ((Position.MAX_LAT - Position.MIN_LAT) / spacing);
+        var cols = (int) ((Position.MAX_LNG - Position.MIN_LNG) / spacing);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                var site = new Position(Position.MIN_LNG + (c + 0.5) * spacing, Position.MIN_LAT + (r + 0.5) * spacing);
+                if (site.inConfinementArea()) candidates.add(site);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Plans the day from every launch site on all available cores, skipping sites outside
+     * the confinement area or inside no fly zones
+     *
+     * @param candidates - candidate launch sites
+     * @return the sites ranked from best to worst
+     */
+    public List<Site> run(List<Position> candidates) throws IOException, InterruptedException {
+        var pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        var futures = new ArrayList<Future<Site>>();
+        for (Position start : candidates) {
+            if (!start.inConfinementArea() || map.getObstacles().contains(start)) continue;
+            futures.add(pool.submit((Callable<Site>) () -> plan(start)));
+        }
+        pool.shutdown();
+
+        var sites = new ArrayList<Site>();
+        try {
+            for (Future<Site> f : futures) sites.add(f.get());
+        } catch (ExecutionException e) {
+            pool.shutdownNow();
+            var cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+
+        sites.sort(Comparator.comparingInt((Site s) -> -s.sensorsVisited)
+                .thenComparing(s -> !s.backToStart)
+                .thenComparingInt(s -> s.movesUsed));
+        return sites;
+    }
+
+    private Site plan(Position start) throws IOException, InterruptedException {
+        var drone = new Drone(map, start, new Random(seed));
+        drone.setPrintPerformance(false);
+        drone.droneSimulator();
+        return new Site(start, drone.getVisitedSensors().size(), drone.getMovesUsed(),
+                drone.getCurrPos().closeToStart(start));
+    }
+}
@@ -0,0 +1,213 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+public class LegCache {
+
+    // "AQLC", followed by the version of the file format
+    private static final int MAGIC = 0x41514c43;
+    private static final int FORMAT_VERSION = 2;
+
+    // Number of legs kept by default, set with -Daqmaps.legCache.size
+    public static final int CAPACITY = Integer.getInteger("aqmaps.legCache.size", 10000);
+
+    // Direction of every move of a leg divided by 10, one byte per move, by key
+    private final LinkedHashMap<String, byte[]> legs;
+    private long hits;
+    private long misses;
+
+    public LegCache(int capacity) {
+        // Access order, so that the eldest entry is the least recently used one
+        this.legs = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<String, byte[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Measures the time spent planning the flights of every date of the local fixtures, in date
+     * order, without a cache, then with a cache filled by the earlier dates only, then with the
+     * cache filled by all the dates, as when it is loaded from a previous run. The distance field
+     * to the start position is computed beforehand, so only the legs are measured
+     *
+     * Usage: fixturesDirs lat lng seed [rounds, default 5], fixturesDirs as in Scoreboard
+     *
+     * @param args
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        var fixtures = FixtureServer.parseRoots(args[0]);
+        var startPos = new Position(Double.parseDouble(args[2]), Double.parseDouble(args[1]));
+        var seed = Integer.parseInt(args[3]);
+        var rounds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+        var fixtureServer = new FixtureServer(fixtures);
+        fixtureServer.start(0);
+        var maps = new ArrayList<Map>();
+        var homeFields = new ArrayList<DistanceField>();
+        try {
+            App.port = String.valueOf(fixtureServer.getPort());
+            for (String[] date : Scoreboard.findDates(fixtureServer)) {
+                var map = new Map(date[0], date[1], date[2]);
+                for (Sensor sensor : map.getSensors()) sensor.toPosition();
+                maps.add(map);
+                homeFields.add(new DistanceField(map.getObstacles(), startPos));
+            }
+        } finally {
+            fixtureServer.stop();
+        }
+
+        // Warm up the planner, so that the first measured pass is not slowed down by compilation
+        for (int i = 0; i < rounds; i++) fly(maps, homeFields, startPos, seed, null);
+
+        var none = Long.MAX_VALUE;
+        var crossDate = Long.MAX_VALUE;
+        var warm = Long.MAX_VALUE;
+        LegCache cache = null;
+        for (int i = 0; i < rounds; i++) {
+            none = Math.min(none, fly(maps, homeFields, startPos, seed, null));
+            cache = new LegCache(CAPACITY);
+            crossDate = Math.min(crossDate, fly(maps, homeFields, startPos, seed, cache));
+        }
+        var crossDateStats = cache.toString();
+        for (int i = 0; i < rounds; i++) warm = Math.min(warm, fly(maps, homeFields, startPos, seed, cache));
+
+        System.out.println(maps.size() + " dates, best of " + rounds + " rounds");
+        System.out.println(String.format(Locale.ROOT, "No cache:   %.3fms", none / 1e6));
+        System.out.println(String.format(Locale.ROOT, "Cross-date: %.3fms, ", crossDate / 1e6) + crossDateStats);
+        System.out.println(String.format(Locale.ROOT, "Warm:       %.3fms", warm / 1e6));
+    }
+
+    private static long fly(List<Map> maps, List<DistanceField> homeFields, Position startPos, int seed, LegCache cache)
+            throws IOException, InterruptedException {
+        var start = System.nanoTime();
+        for (int i = 0; i < maps.size(); i++) {
+            var drone = new Drone(maps.get(i), startPos, new Random(seed));
+            drone.setPrintPerformance(false);
+            drone.setHomeField(homeFields.get(i));
+            drone.setLegCache(cache);
+            drone.droneSimulator();
+        }
+        return System.nanoTime() - start;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return legs.size();
+    }
+
+    /**
+     * Builds the key of a leg from the quantised cells of its ends and the no fly zones. The
+     * fingerprint tells zones of different dates apart, and the version changes with every zone
+     * added mid-flight, so a leg is never replayed around zones it was not flown around
+     *
+     * @param from      - position the leg starts from
+     * @param to        - position the leg heads to
+     * @param obstacles - no fly zones of the flight
+     * @return key of the leg
+     */
+    static String key(Position from, Position to, Obstacles obstacles) {
+        return Long.toHexString(DistanceField.key(from)) + ">" + Long.toHexString(DistanceField.key(to))
+                + "#" + Long.toHexString(obstacles.getFingerprint()) + "." + obstacles.getVersion();
+    }
+
+    /**
+     * Looks up the moves of a leg flown before between the same cells, around the same no fly zones
+     *
+     * @param key - key of the leg, built by key
+     * @return direction of every move divided by 10, or null if the leg was never flown
+     */
+    public synchronized byte[] get(String key) {
+        var leg = legs.get(key);
+        if (leg == null) misses++;
+        else hits++;
+        return leg;
+    }
+
+    public synchronized void put(String key, byte[] headings) {
+        legs.put(key, headings);
+    }
+
+    /**
+     * Writes the legs, from the least to the most recently used, so that loading them back keeps
+     * their order
+     *
+     * @param file - file to write to
+     * @throws IOException
+     */
+    public synchronized void save(Path file) throws IOException {
+        var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(legs.size());
+            for (var entry : legs.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeShort(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the legs saved by a previous run
+     *
+     * @param file     - file written by save
+     * @param capacity - maximum number of legs to keep
+     * @return the loaded cache, or an empty one if the file is missing, truncated or written in
+     *         another format version
+     * @throws IOException
+     */
+    public static LegCache load(Path file, int capacity) throws IOException {
+        if (!Files.isRegularFile(file)) return new LegCache(capacity);
+
+        var cache = new LegCache(capacity);
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return new LegCache(capacity);
+            var noOfLegs = in.readInt();
+            for (int i = 0; i < noOfLegs; i++) {
+                var key = in.readUTF();
+                var headings = new byte[in.readUnsignedShort()];
+                in.readFully(headings);
+                cache.legs.put(key, headings);
+            }
+        } catch (EOFException e) {
+            // Cut short, e.g. by a full disk: start over rather than trust part of the file
+            return new LegCache(capacity);
+        }
+        return cache;
+    }
+
+    @Override
+    public synchronized String toString() {
+        var total = hits + misses;
+        return "Leg cache: " + legs.size() + " legs, " + hits + " hits, " + misses + " misses"
+                + (total == 0 ? "" : " (" + Math.round(100.0 * hits / total) + "% hit rate)");
+    }
+}
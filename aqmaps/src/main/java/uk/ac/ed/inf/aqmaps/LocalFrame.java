@@ -0,0 +1,48 @@
+package uk.ac.ed.inf.aqmaps;
+
+public class LocalFrame {
+
+    // Frame tangent at the centre of the confinement area, shared by every map since the drone
+    // never leaves the area
+    public static final LocalFrame CONFINEMENT_AREA =
+            new LocalFrame(new Position((Position.MIN_LNG + Position.MAX_LNG) / 2, (Position.MIN_LAT + Position.MAX_LAT) / 2));
+
+    // Length in metres of each of the 36 moves, indexed by direction / 10: a move is 0.0003
+    // degrees in every direction, so east-west moves are shorter than north-south ones
+    private final double[] stepMetres = new double[36];
+    private final double maxStepMetres;
+
+    /**
+     * Creates an east-north frame in metres, tangent to the Earth at the origin, with the metres
+     * per degree of longitude and latitude on the WGS84 ellipsoid. Only the constructor uses
+     * trigonometry: the length of a move is then a table lookup
+     *
+     * @param origin - position at (0, 0) in the frame
+     */
+    public LocalFrame(Position origin) {
+        var phi = Math.toRadians(origin.getLat());
+        var metresPerLat = 111132.92 - 559.82 * Math.cos(2 * phi) + 1.175 * Math.cos(4 * phi) - 0.0023 * Math.cos(6 * phi);
+        var metresPerLng = 111412.84 * Math.cos(phi) - 93.5 * Math.cos(3 * phi) + 0.118 * Math.cos(5 * phi);
+
+        var max = 0.0;
+        for (int i = 0; i < 36; i++) {
+            var start = new Position(0, 0);
+            var end = start.nextPosition(i * 10);
+            stepMetres[i] = Math.hypot(end.getLng() * metresPerLng, end.getLat() * metresPerLat);
+            max = Math.max(max, stepMetres[i]);
+        }
+        maxStepMetres = max;
+    }
+
+    /**
+     * @param direction - direction of a move, a multiple of 10
+     * @return length in metres of a move in this direction
+     */
+    public double stepMetres(int direction) {
+        return stepMetres[direction / 10];
+    }
+
+    public double getMaxStepMetres() {
+        return maxStepMetres;
+    }
+}
@@ -0,0 +1,111 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Arrays;
+
+public class LongIntHashMap {
+
+    // Key marking an empty slot, never produced by a quantised position
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    public LongIntHashMap(int expectedSize) {
+        var capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2) - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.size = 0;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public LongIntHashMap copy() {
+        var copy = new LongIntHashMap(0);
+        copy.keys = keys.clone();
+        copy.values = values.clone();
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Spreads the bits of a key so that neighbouring cells do not land in neighbouring slots
+     *
+     * @param key - the key to hash
+     * @return hash of the key
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * Finds the slot of a key using linear probing
+     *
+     * @param key - the key to look for
+     * @return index of the slot holding the key, or of the empty slot where it would be inserted
+     */
+    private int slot(long key) {
+        var mask = keys.length - 1;
+        var i = hash(key) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Gets the value associated with a key
+     *
+     * @param key          - the key to look for
+     * @param defaultValue - value returned if the key is absent
+     * @return the value of the key, or defaultValue if the key is absent
+     */
+    public int get(long key, int defaultValue) {
+        var i = slot(key);
+        return keys[i] == EMPTY ? defaultValue : values[i];
+    }
+
+    public boolean containsKey(long key) {
+        return keys[slot(key)] != EMPTY;
+    }
+
+    /**
+     * Associates a value with a key, replacing any previous value
+     *
+     * @param key   - the key, must not be Long.MIN_VALUE
+     * @param value - the value
+     */
+    public void put(long key, int value) {
+        var i = slot(key);
+        if (keys[i] == EMPTY) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                i = slot(key);
+            }
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+    }
+
+    private void grow() {
+        var oldKeys = keys;
+        var oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                var j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
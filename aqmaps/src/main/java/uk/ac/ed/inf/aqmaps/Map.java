@@ -1,11 +1,10 @@
 package uk.ac.ed.inf.aqmaps;
 
 import java.io.*;
-import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 import com.mapbox.geojson.*;
 
 public class Map {
@@ -15,12 +14,26 @@ public class Map {
     private List<Sensor> sensors = new ArrayList<>();
     private List<Feature> noFlyZones = new ArrayList<>();
     
+    // Edges of the no fly zones, built on first use and shared by all drones flying this map
+    private volatile Obstacles obstacles;
+    
     public Map(String day, String month, String year) throws IOException, InterruptedException {
         this.day = day;
         this.month = month;
         this.year = year;
-        this.parseSensors();
-        this.parseNoFlyZones();
+        
+        // Load the compiled map if there is an up to date one, otherwise fetch the JSON
+        var artefacts = System.getProperty("aqmaps.artefacts");
+        var artefact = artefacts == null ? null
+                : MapArtefact.load(java.nio.file.Path.of(artefacts, MapArtefact.fileName(day, month, year)), day, month, year);
+        if (artefact != null) {
+            this.sensors = artefact.getSensors();
+            this.noFlyZones = artefact.getNoFlyZones();
+            this.obstacles = artefact.getObstacles();
+        } else {
+            this.parseSensors();
+            this.parseNoFlyZones();
+        }
     }
     
     public String getDay() {
@@ -43,6 +56,11 @@ public class Map {
         return noFlyZones;
     }
     
+    public Obstacles getObstacles() {
+        if (obstacles == null) obstacles = new Obstacles(noFlyZones);
+        return obstacles;
+    }
+    
     /**
      * Obtain the sensors for this map and assign to the attribute sensors
      */
@@ -50,13 +68,11 @@ public class Map {
         // Generate the json URL for air quality data
         var date = year + "/" + month + "/" + day;
         var urlString = "http://localhost:" + App.port + "/maps/" + date + "/air-quality-data.json";
-        var json = JsonParser.readJson(urlString);
-        
-        // Deserialising a JSON list to a Java object using its type
-        Type listType = new TypeToken<ArrayList<Sensor>>() {}.getType();
-        ArrayList<Sensor> sensorsToVisit = new Gson().fromJson(json, listType);
         
-        sensors = sensorsToVisit;
+        // Stream the JSON list straight from the response body
+        try (var reader = new JsonReader(new InputStreamReader(JsonParser.openStream(urlString), StandardCharsets.UTF_8))) {
+            sensors = Sensor.readSensors(reader);
+        }
     }
     
     /**
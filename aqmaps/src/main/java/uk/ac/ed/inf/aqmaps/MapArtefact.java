@@ -0,0 +1,218 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+public class MapArtefact {
+
+    // "AQMP", followed by the version of the format, bumped whenever the layout below changes
+    private static final int MAGIC = 0x41514d50;
+    private static final int FORMAT_VERSION = 1;
+
+    private final List<Sensor> sensors;
+    private final List<Feature> noFlyZones;
+    private final Obstacles obstacles;
+
+    private MapArtefact(List<Sensor> sensors, List<Feature> noFlyZones, Obstacles obstacles) {
+        this.sensors = sensors;
+        this.noFlyZones = noFlyZones;
+        this.obstacles = obstacles;
+    }
+
+    public List<Sensor> getSensors() {
+        return sensors;
+    }
+
+    public List<Feature> getNoFlyZones() {
+        return noFlyZones;
+    }
+
+    public Obstacles getObstacles() {
+        return obstacles;
+    }
+
+    /**
+     * Compiles the map of a date, fetched from the web server, into a binary artefact that
+     * Map loads instead of fetching the JSON when -Daqmaps.artefacts is set to its directory
+     *
+     * Usage: DD MM YYYY port outputDir
+     *
+     * @param args
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        App.port = args[3];
+        var map = new Map(args[0], args[1], args[2]);
+        var file = Path.of(args[4]).resolve(fileName(args[0], args[1], args[2]));
+        Files.createDirectories(file.getParent());
+        write(map, file);
+        System.out.println("Wrote " + file + " (" + Files.size(file) + " bytes)");
+    }
+
+    /**
+     * Name of the artefact of a date
+     *
+     * @param day   - day of the map
+     * @param month - month of the map
+     * @param year  - year of the map
+     * @return file name, e.g. map-2020-01-31.aqm
+     */
+    public static String fileName(String day, String month, String year) {
+        return "map-" + year + "-" + month + "-" + day + ".aqm";
+    }
+
+    /**
+     * Writes a map with its sensor coordinates resolved and its edge index built. The layout is a
+     * header (magic, format version, date, CRC32 and length of the body) followed by the body:
+     * the sensors with their coordinates, the no fly zones as packed polygon coordinates, and the
+     * building edges with their grid index
+     *
+     * @param map  - map to compile
+     * @param file - file to write to
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void write(Map map, Path file) throws IOException, InterruptedException {
+        var bytes = new ByteArrayOutputStream();
+        var body = new DataOutputStream(bytes);
+
+        body.writeInt(map.getSensors().size());
+        for (Sensor sensor : map.getSensors()) {
+            var pos = sensor.toPosition();
+            writeString(body, sensor.getLocation());
+            body.writeFloat(sensor.getRawBattery());
+            writeString(body, sensor.getReading());
+            body.writeDouble(pos.getLng());
+            body.writeDouble(pos.getLat());
+        }
+
+        body.writeInt(map.getNoFlyZones().size());
+        for (Feature zone : map.getNoFlyZones()) {
+            writeString(body, zone.properties() == null ? "{}" : zone.properties().toString());
+            var rings = ((Polygon) zone.geometry()).coordinates();
+            body.writeInt(rings.size());
+            for (List<Point> ring : rings) {
+                body.writeInt(ring.size());
+                for (Point p : ring) {
+                    body.writeDouble(p.longitude());
+                    body.writeDouble(p.latitude());
+                }
+            }
+        }
+
+        map.getObstacles().writeTo(body);
+        body.flush();
+
+        var crc = new CRC32();
+        crc.update(bytes.toByteArray());
+
+        var header = new ByteArrayOutputStream();
+        var out = new DataOutputStream(header);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        writeString(out, map.getDay() + "-" + map.getMonth() + "-" + map.getYear());
+        out.writeLong(crc.getValue());
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        out.flush();
+
+        // Write to a temporary file first so that a reader never maps a half-written artefact
+        var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, header.toByteArray());
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the artefact of a date by memory mapping it
+     *
+     * @param file  - artefact file
+     * @param day   - expected day
+     * @param month - expected month
+     * @param year  - expected year
+     * @return the loaded artefact, or null if the file is missing, written in another format
+     *         version, compiled for another date or corrupted
+     * @throws IOException
+     */
+    public static MapArtefact load(Path file, String day, String month, String year) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) return null;
+            if (!readString(in).equals(day + "-" + month + "-" + year)) return null;
+
+            var expectedCrc = in.getLong();
+            var length = in.getInt();
+            if (length != in.remaining()) return null;
+            var crc = new CRC32();
+            crc.update(in.duplicate());
+            if (crc.getValue() != expectedCrc) return null;
+
+            return read(in);
+        } catch (BufferUnderflowException e) {
+            // File cut short within the header, before the checksum can be verified
+            return null;
+        }
+    }
+
+    private static MapArtefact read(ByteBuffer in) {
+        var noOfSensors = in.getInt();
+        var sensors = new ArrayList<Sensor>(noOfSensors);
+        for (int i = 0; i < noOfSensors; i++) {
+            var location = readString(in);
+            var battery = in.getFloat();
+            var reading = readString(in);
+            var lng = in.getDouble();
+            var lat = in.getDouble();
+            sensors.add(new Sensor(location, battery, reading, new Position(lng, lat)));
+        }
+
+        var noOfZones = in.getInt();
+        var noFlyZones = new ArrayList<Feature>(noOfZones);
+        for (int i = 0; i < noOfZones; i++) {
+            var properties = com.google.gson.JsonParser.parseString(readString(in)).getAsJsonObject();
+            var rings = new ArrayList<List<Point>>();
+            var noOfRings = in.getInt();
+            for (int r = 0; r < noOfRings; r++) {
+                var noOfPoints = in.getInt();
+                var ring = new ArrayList<Point>(noOfPoints);
+                for (int p = 0; p < noOfPoints; p++) ring.add(Point.fromLngLat(in.getDouble(), in.getDouble()));
+                rings.add(ring);
+            }
+            noFlyZones.add(Feature.fromGeometry(Polygon.fromLngLats(rings), properties));
+        }
+
+        return new MapArtefact(sensors, noFlyZones, Obstacles.readFrom(in));
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        var length = in.getInt();
+        if (length < 0 || length > in.remaining()) throw new BufferUnderflowException();
+        var bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,444 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.awt.geom.Line2D;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+public class Obstacles {
+
+    // Side of a grid cell of the spatial index in degrees, the length of one move
+    private static final double GRID_CELL = 0.0003;
+
+    // Offsets of a move in each of the 36 directions, computed exactly as in Position.nextPosition
+    private static final double[] HEADING_DX = new double[36];
+    private static final double[] HEADING_DY = new double[36];
+
+    static {
+        for (int h = 0; h < 36; h++) {
+            HEADING_DX[h] = 0.0003 * Math.cos(Math.toRadians(h * 10));
+            HEADING_DY[h] = 0.0003 * Math.sin(Math.toRadians(h * 10));
+        }
+    }
+
+    // Mask with one bit set for each of the 36 directions
+    public static final long ALL_HEADINGS = (1L << 36) - 1;
+
+    // Building edges packed as consecutive (x1, y1, x2, y2) quadruples
+    private double[] edges;
+    private int noOfEdges;
+
+    // Incremented every time a no fly zone is added, so that the fingerprint and the leg cache
+    // keys change with the zones
+    private int version;
+
+    // Hash of the edges, computed on first use for the current version
+    private long fingerprint;
+    private int fingerprintVersion = -1;
+
+    // Uniform grid over the bounding box of the edges: the edges crossing cell c
+    // are cellEdges[cellStart[c]] to cellEdges[cellStart[c+1] - 1]
+    private double minX, minY;
+    private int cols, rows;
+    private int[] cellStart;
+    private int[] cellEdges;
+
+    public Obstacles(List<Feature> noFlyZones) {
+        this.edges = new double[64];
+        this.noOfEdges = 0;
+        this.version = 0;
+        for (Feature f : noFlyZones) {
+            addEdges(f);
+        }
+        buildIndex();
+    }
+
+    /**
+     * Copies the edges of another set of obstacles, so that zones added to the copy
+     * do not affect the original
+     *
+     * @param other - obstacles to copy
+     */
+    public Obstacles(Obstacles other) {
+        this.edges = Arrays.copyOf(other.edges, other.edges.length);
+        this.noOfEdges = other.noOfEdges;
+        this.version = other.version;
+
+        // The index arrays are never modified once built, so they can be shared
+        this.minX = other.minX;
+        this.minY = other.minY;
+        this.cols = other.cols;
+        this.rows = other.rows;
+        this.cellStart = other.cellStart;
+        this.cellEdges = other.cellEdges;
+    }
+
+    private Obstacles() {
+    }
+
+    /**
+     * Times finding the blocked moves from every position of a grid over the confinement area,
+     * with blockedHeadings against testing the 36 moves one by one with intersects, on the no fly
+     * zones of a date, and checks that both find the same moves
+     *
+     * Usage: fixturesDirs DD MM YYYY [rounds, default 20], fixturesDirs as in Scoreboard
+     *
+     * @param args
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        var rounds = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+        var fixtureServer = new FixtureServer(FixtureServer.parseRoots(args[0]));
+        fixtureServer.start(0);
+        Obstacles obstacles;
+        try {
+            App.port = String.valueOf(fixtureServer.getPort());
+            obstacles = new Map(args[1], args[2], args[3]).getObstacles();
+        } finally {
+            fixtureServer.stop();
+        }
+
+        var positions = new java.util.ArrayList<Position>();
+        for (var lng = Position.MIN_LNG + 0.00005; lng < Position.MAX_LNG; lng += 0.0001) {
+            for (var lat = Position.MIN_LAT + 0.00005; lat < Position.MAX_LAT; lat += 0.0001) {
+                positions.add(new Position(lng, lat));
+            }
+        }
+
+        var sweep = new double[rounds];
+        var oneByOne = new double[rounds];
+        var blockedMoves = 0L;
+        var mismatches = 0;
+        // The first half of the rounds only warms up both
+        for (int r = 0; r < 2 * rounds; r++) {
+            var time = System.nanoTime();
+            var sweepBlocked = 0L;
+            for (Position from : positions) sweepBlocked += Long.bitCount(obstacles.blockedHeadings(from));
+            var sweepNanos = System.nanoTime() - time;
+
+            time = System.nanoTime();
+            var loopBlocked = 0L;
+            for (Position from : positions) {
+                for (int i = 0; i < 360; i += 10) {
+                    var to = from.nextPosition(i);
+                    if (!to.inConfinementArea() || obstacles.intersects(from, to)) loopBlocked++;
+                }
+            }
+            var loopNanos = System.nanoTime() - time;
+
+            if (r >= rounds) {
+                sweep[r - rounds] = (double) sweepNanos / positions.size();
+                oneByOne[r - rounds] = (double) loopNanos / positions.size();
+            }
+            blockedMoves = sweepBlocked;
+            if (sweepBlocked != loopBlocked) mismatches++;
+        }
+        Arrays.sort(sweep);
+        Arrays.sort(oneByOne);
+
+        System.out.println(positions.size() + " positions, " + obstacles.getNoOfEdges() + " edges, " + blockedMoves + " blocked moves"
+                + (mismatches == 0 ? "" : ", " + mismatches + " rounds where the two disagree"));
+        System.out.println(String.format(java.util.Locale.ROOT, "blockedHeadings: %.0fns per position, 36 intersects: %.0fns per position (%.1fx)",
+                sweep[rounds / 2], oneByOne[rounds / 2], oneByOne[rounds / 2] / sweep[rounds / 2]));
+    }
+
+    public int getNoOfEdges() {
+        return noOfEdges;
+    }
+
+    /**
+     * Gets the number of no fly zones added since the obstacles were built from the map. It is part
+     * of the key of every leg in LegCache, and is written and read back with the map artefact
+     *
+     * @return version of the obstacles
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Hashes the edges, so that obstacles built from the same no fly zones have the same
+     * fingerprint, whatever the date or the run they were loaded in
+     *
+     * @return fingerprint of the edges
+     */
+    public long getFingerprint() {
+        if (fingerprintVersion != version) {
+            var hash = 1125899906842597L;
+            for (int i = 0; i < 4 * noOfEdges; i++) hash = 31 * hash + Double.doubleToLongBits(edges[i]);
+            fingerprint = hash;
+            fingerprintVersion = version;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Appends the edges of a no fly zone to the existing edges, then rebuilds the grid index
+     * over all the edges. The other zones are not parsed again, but the cost of adding a zone
+     * still grows with the total number of edges
+     *
+     * @param noFlyZone - Feature object whose geometry is a Polygon
+     */
+    public void add(Feature noFlyZone) {
+        addEdges(noFlyZone);
+        buildIndex();
+    }
+
+    private void addEdges(Feature noFlyZone) {
+        var p = (Polygon) noFlyZone.geometry();
+
+        // Always going to have only 1 List<Point>
+        List<Point> building = p.coordinates().get(0);
+
+        for (int i = 0; i < building.size() - 1; i++) {
+            var start = building.get(i);
+            var end = building.get(i+1);
+            addEdge(start.longitude(), start.latitude(), end.longitude(), end.latitude());
+        }
+        version++;
+    }
+
+    private void addEdge(double x1, double y1, double x2, double y2) {
+        if (4 * (noOfEdges + 1) > edges.length) {
+            edges = Arrays.copyOf(edges, edges.length * 2);
+        }
+        var i = 4 * noOfEdges;
+        edges[i] = x1;
+        edges[i+1] = y1;
+        edges[i+2] = x2;
+        edges[i+3] = y2;
+        noOfEdges++;
+    }
+
+    private int col(double x) {
+        return Math.min(cols - 1, Math.max(0, (int) ((x - minX) / GRID_CELL)));
+    }
+
+    private int row(double y) {
+        return Math.min(rows - 1, Math.max(0, (int) ((y - minY) / GRID_CELL)));
+    }
+
+    /**
+     * Builds the grid index, registering every edge in all the cells covered by its bounding box
+     */
+    private void buildIndex() {
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        minX = Double.MAX_VALUE;
+        minY = Double.MAX_VALUE;
+        for (int i = 0; i < 4 * noOfEdges; i += 4) {
+            minX = Math.min(minX, Math.min(edges[i], edges[i+2]));
+            maxX = Math.max(maxX, Math.max(edges[i], edges[i+2]));
+            minY = Math.min(minY, Math.min(edges[i+1], edges[i+3]));
+            maxY = Math.max(maxY, Math.max(edges[i+1], edges[i+3]));
+        }
+        if (noOfEdges == 0) {
+            cols = 0;
+            rows = 0;
+            cellStart = new int[1];
+            cellEdges = new int[0];
+            return;
+        }
+        cols = (int) ((maxX - minX) / GRID_CELL) + 1;
+        rows = (int) ((maxY - minY) / GRID_CELL) + 1;
+
+        // First pass counts the edges of every cell, second pass fills them in
+        var start = new int[cols * rows + 1];
+        for (int pass = 0; pass < 2; pass++) {
+            var fill = pass == 1 ? Arrays.copyOf(start, start.length) : null;
+            var cells = pass == 1 ? new int[start[cols * rows]] : null;
+
+            for (int e = 0; e < noOfEdges; e++) {
+                var i = 4 * e;
+                var c0 = col(Math.min(edges[i], edges[i+2]));
+                var c1 = col(Math.max(edges[i], edges[i+2]));
+                var r0 = row(Math.min(edges[i+1], edges[i+3]));
+                var r1 = row(Math.max(edges[i+1], edges[i+3]));
+                for (int r = r0; r <= r1; r++) {
+                    for (int c = c0; c <= c1; c++) {
+                        if (pass == 0) start[r * cols + c + 1]++;
+                        else cells[fill[r * cols + c]++] = e;
+                    }
+                }
+            }
+
+            if (pass == 0) {
+                for (int c = 0; c < cols * rows; c++) start[c+1] += start[c];
+            } else {
+                cellEdges = cells;
+            }
+        }
+        cellStart = start;
+    }
+
+    /**
+     * Checks whether a position is inside a no fly zone, counting the edges crossed by a ray
+     * going east from the position (the zones do not overlap, so an odd count means inside)
+     *
+     * @param pos - position to check
+     * @return true if the position is inside a building, false otherwise
+     */
+    public boolean contains(Position pos) {
+        var x = pos.getLng();
+        var y = pos.getLat();
+        var inside = false;
+        for (int i = 0; i < 4 * noOfEdges; i += 4) {
+            var y1 = edges[i+1];
+            var y2 = edges[i+3];
+            if ((y1 > y) != (y2 > y)) {
+                var crossX = edges[i] + (y - y1) * (edges[i+2] - edges[i]) / (y2 - y1);
+                if (x < crossX) inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Finds which of the 36 possible moves from a position intersect with a building or leave
+     * the confinement area, in one sweep: the edges near the position are gathered once from the
+     * grid index and each of them is tested against all the moves that are not yet blocked
+     *
+     * @param from - the current position of the drone
+     * @return mask where bit i is set if moving in direction 10*i is not allowed
+     */
+    public long blockedHeadings(Position from) {
+        var x1 = from.getLng();
+        var y1 = from.getLat();
+        long blocked = 0;
+
+        var ends = new double[72];
+        for (int h = 0; h < 36; h++) {
+            var x2 = x1 + HEADING_DX[h];
+            var y2 = y1 + HEADING_DY[h];
+            ends[2*h] = x2;
+            ends[2*h+1] = y2;
+            if (!new Position(x2, y2).inConfinementArea()) blocked |= 1L << h;
+        }
+        if (noOfEdges == 0) return blocked;
+
+        // Every move stays within one move length of the position
+        var lowX = x1 - GRID_CELL;
+        var lowY = y1 - GRID_CELL;
+        var highX = x1 + GRID_CELL;
+        var highY = y1 + GRID_CELL;
+        if (highX < minX || highY < minY || lowX > minX + cols * GRID_CELL || lowY > minY + rows * GRID_CELL) {
+            return blocked;
+        }
+
+        for (int r = row(lowY); r <= row(highY); r++) {
+            for (int c = col(lowX); c <= col(highX); c++) {
+                var cell = r * cols + c;
+                for (int k = cellStart[cell]; k < cellStart[cell+1]; k++) {
+                    var i = 4 * cellEdges[k];
+                    var ex1 = edges[i];
+                    var ey1 = edges[i+1];
+                    var ex2 = edges[i+2];
+                    var ey2 = edges[i+3];
+
+                    // Skip edges entirely outside the reach of the moves
+                    if (Math.max(ex1, ex2) < lowX || Math.min(ex1, ex2) > highX
+                            || Math.max(ey1, ey2) < lowY || Math.min(ey1, ey2) > highY) continue;
+
+                    for (int h = 0; h < 36; h++) {
+                        if ((blocked & (1L << h)) != 0) continue;
+                        if (Line2D.linesIntersect(x1, y1, ends[2*h], ends[2*h+1], ex1, ey1, ex2, ey2)) {
+                            blocked |= 1L << h;
+                        }
+                    }
+                    if (blocked == ALL_HEADINGS) return blocked;
+                }
+            }
+        }
+        return blocked;
+    }
+
+    /**
+     * Checks whether moving from one position to another will intersect with any building,
+     * only testing the edges registered in the grid cells covered by the movement
+     *
+     * @param from - the current position of the drone
+     * @param to   - the intended next position of the drone
+     * @return true if this movement intersects with any building, false otherwise
+     */
+    public boolean intersects(Position from, Position to) {
+        var x1 = from.getLng();
+        var y1 = from.getLat();
+        var x2 = to.getLng();
+        var y2 = to.getLat();
+        if (noOfEdges == 0) return false;
+
+        // Movement entirely outside the bounding box of the buildings
+        var lowX = Math.min(x1, x2);
+        var lowY = Math.min(y1, y2);
+        var highX = Math.max(x1, x2);
+        var highY = Math.max(y1, y2);
+        if (highX < minX || highY < minY || lowX > minX + cols * GRID_CELL || lowY > minY + rows * GRID_CELL) {
+            return false;
+        }
+
+        for (int r = row(lowY); r <= row(highY); r++) {
+            for (int c = col(lowX); c <= col(highX); c++) {
+                var cell = r * cols + c;
+                for (int k = cellStart[cell]; k < cellStart[cell+1]; k++) {
+                    var i = 4 * cellEdges[k];
+                    if (Line2D.linesIntersect(x1, y1, x2, y2, edges[i], edges[i+1], edges[i+2], edges[i+3])) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the edges and the grid index, so that they can be loaded without building the index again
+     *
+     * @param out - stream to write to
+     * @throws IOException
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(version);
+        out.writeInt(noOfEdges);
+        for (int i = 0; i < 4 * noOfEdges; i++) out.writeDouble(edges[i]);
+        out.writeDouble(minX);
+        out.writeDouble(minY);
+        out.writeInt(cols);
+        out.writeInt(rows);
+        out.writeInt(cellStart.length);
+        for (int c : cellStart) out.writeInt(c);
+        out.writeInt(cellEdges.length);
+        for (int e : cellEdges) out.writeInt(e);
+    }
+
+    /**
+     * Reads edges and a grid index written by writeTo
+     *
+     * @param in - buffer positioned at the start of the obstacles
+     * @return Obstacles object
+     */
+    static Obstacles readFrom(ByteBuffer in) {
+        var obstacles = new Obstacles();
+        obstacles.version = in.getInt();
+        obstacles.noOfEdges = in.getInt();
+        obstacles.edges = new double[Math.max(64, 4 * obstacles.noOfEdges)];
+        in.asDoubleBuffer().get(obstacles.edges, 0, 4 * obstacles.noOfEdges);
+        in.position(in.position() + 32 * obstacles.noOfEdges);
+        obstacles.minX = in.getDouble();
+        obstacles.minY = in.getDouble();
+        obstacles.cols = in.getInt();
+        obstacles.rows = in.getInt();
+        obstacles.cellStart = new int[in.getInt()];
+        in.asIntBuffer().get(obstacles.cellStart);
+        in.position(in.position() + 4 * obstacles.cellStart.length);
+        obstacles.cellEdges = new int[in.getInt()];
+        in.asIntBuffer().get(obstacles.cellEdges);
+        in.position(in.position() + 4 * obstacles.cellEdges.length);
+        return obstacles;
+    }
+}
@@ -0,0 +1,128 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.LineString;
+import com.mapbox.geojson.Point;
+
+public class PathSimplifier {
+
+    private final FlightPath path;
+
+    // Positions kept by the last simplification, and the (first, last) ranges still to split,
+    // allocated once and reused by every level of detail
+    private final boolean[] keep;
+    private final int[] stack;
+
+    public PathSimplifier(FlightPath path) {
+        this.path = path;
+        this.keep = new boolean[path.getNoOfPositions()];
+        this.stack = new int[2 * path.getNoOfPositions()];
+    }
+
+    /**
+     * Simplifies the flight path with the Douglas-Peucker algorithm, using an explicit stack of
+     * ranges instead of recursion. The first and last positions are always kept
+     *
+     * @param tolerance - largest distance in degrees between a dropped position and the simplified path
+     * @return indices of the kept positions, in order
+     */
+    public int[] simplify(double tolerance) {
+        var n = path.getNoOfPositions();
+        if (n <= 2) {
+            var all = new int[n];
+            for (int i = 0; i < n; i++) all[i] = i;
+            return all;
+        }
+
+        Arrays.fill(keep, false);
+        keep[0] = true;
+        keep[n - 1] = true;
+        var kept = 2;
+
+        var top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        while (top > 0) {
+            var last = stack[--top];
+            var first = stack[--top];
+
+            var maxDist = -1.0;
+            var index = -1;
+            for (int i = first + 1; i < last; i++) {
+                var dist = distanceToChord(i, first, last);
+                if (dist > maxDist) {
+                    maxDist = dist;
+                    index = i;
+                }
+            }
+
+            if (index != -1 && maxDist > tolerance) {
+                keep[index] = true;
+                kept++;
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+
+        var indices = new int[kept];
+        var j = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) indices[j++] = i;
+        }
+        return indices;
+    }
+
+    /**
+     * Gets the distance between a position of the path and the segment joining two other positions
+     *
+     * @param i     - index of the position
+     * @param first - index of the start of the segment
+     * @param last  - index of the end of the segment
+     * @return distance in degrees
+     */
+    private double distanceToChord(int i, int first, int last) {
+        var x = path.getLng(i);
+        var y = path.getLat(i);
+        var x1 = path.getLng(first);
+        var y1 = path.getLat(first);
+        var dx = path.getLng(last) - x1;
+        var dy = path.getLat(last) - y1;
+
+        var lengthSq = dx * dx + dy * dy;
+        var t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSq));
+        var px = x1 + t * dx - x;
+        var py = y1 + t * dy - y;
+        return Math.sqrt(px * px + py * py);
+    }
+
+    /**
+     * Outputs the flight path at several levels of detail, the tolerance doubling at every level.
+     * Each LineString has a "lod" property (0 being the most detailed) and its "tolerance"
+     *
+     * @param tolerance - tolerance of level 0 in degrees
+     * @param levels    - number of levels
+     * @return List of Feature objects, one per level
+     */
+    public List<Feature> displayLevels(double tolerance, int levels) {
+        var features = new ArrayList<Feature>(levels);
+        for (int level = 0; level < levels; level++) {
+            var t = tolerance * (1 << level);
+            var indices = simplify(t);
+
+            List<Point> points = new ArrayList<>(indices.length);
+            for (int i : indices) points.add(Point.fromLngLat(path.getLng(i), path.getLat(i)));
+
+            var f = Feature.fromGeometry(LineString.fromLngLats(points));
+            f.addNumberProperty("lod", level);
+            f.addNumberProperty("tolerance", t);
+            features.add(f);
+        }
+        return features;
+    }
+}
@@ -0,0 +1,196 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class PlanningServer {
+
+    // Maps downloaded or being downloaded, keyed by date, so that sensors and no fly zones stay in
+    // memory and concurrent requests for a new date wait for a single download
+    private final java.util.Map<String, CompletableFuture<Map>> maps = new ConcurrentHashMap<>();
+
+    // Time given to the requests being handled to finish when the server stops
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+
+    private final Gson gson = new Gson();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Starts a planning server answering GET /plan?day=DD&month=MM&year=YYYY&lat=..&lng=..&seed=..
+     * with a JSON object holding the readings GeoJSON and the flight path log
+     *
+     * @param args - port of the web server holding the maps, port to listen on
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        App.port = args[0];
+        var planningServer = new PlanningServer();
+        planningServer.start(Integer.parseInt(args[1]));
+        System.out.println("Planning server listening on port " + planningServer.getPort());
+    }
+
+    public void start(int listenPort) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(listenPort), 0);
+        server.createContext("/plan", this::handlePlan);
+        executor = newExecutor();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, then shuts the request threads down, waiting for the requests
+     * being handled to finish
+     *
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        server.stop(0);
+        executor.shutdown();
+        if (!executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Creates a virtual thread per request executor when the JDK supports it (Java 21+),
+     * and a bounded pool of platform threads otherwise
+     *
+     * @return the executor handling requests
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(4 * Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    /**
+     * Gets the map of a date, downloading it only the first time it is requested. Requests for a
+     * date being downloaded wait for that download, and a failed download is tried again by the
+     * next request
+     *
+     * @return Map object
+     */
+    private Map getMap(String day, String month, String year) throws IOException, InterruptedException {
+        var date = day + "-" + month + "-" + year;
+        var download = new CompletableFuture<Map>();
+        var existing = maps.putIfAbsent(date, download);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                var cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw new IOException("Download of the map of " + date + " failed", cause);
+            }
+        }
+
+        try {
+            var map = new Map(day, month, year);
+
+            // Resolve the sensor coordinates and the no fly zone edges once for all requests
+            for (Sensor sensor : map.getSensors()) sensor.toPosition();
+            map.getObstacles();
+
+            download.complete(map);
+            return map;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            maps.remove(date, download);
+            download.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Plans a flight and answers with its readings and log. The whole reply is built before any
+     * header is sent, so that every failure, including a bug in the planner, gets an error status;
+     * an IOException while sending means the client went away, and only closes the exchange
+     */
+    private void handlePlan(HttpExchange exchange) throws IOException {
+        int status;
+        String body;
+        try {
+            var params = parseQuery(exchange.getRequestURI().getRawQuery());
+            var day = required(params, "day");
+            var month = required(params, "month");
+            var year = required(params, "year");
+            var lat = Double.parseDouble(required(params, "lat"));
+            var lng = Double.parseDouble(required(params, "lng"));
+            var seed = Integer.parseInt(params.getOrDefault("seed", "0"));
+
+            var map = getMap(day, month, year);
+            var drone = new Drone(map, new Position(lng, lat), new Random(seed));
+            drone.setPrintPerformance(false);
+            drone.droneSimulator();
+
+            status = 200;
+            body = "{\"readings\":" + WriteFiles.displayFlight(drone).toJson()
+                    + ",\"flightpath\":" + gson.toJson(drone.getLog()) + "}";
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = gson.toJson("Bad request: " + e.getMessage());
+        } catch (IOException e) {
+            status = 502;
+            body = gson.toJson("Map unavailable: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = 503;
+            body = gson.toJson("Interrupted");
+        } catch (RuntimeException e) {
+            status = 500;
+            body = gson.toJson("Planning failed: " + e);
+        }
+
+        try {
+            send(exchange, status, body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static java.util.Map<String, String> parseQuery(String query) {
+        var params = new HashMap<String, String>();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            var i = pair.indexOf('=');
+            if (i > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, i), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(i + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static String required(java.util.Map<String, String> params, String name) {
+        var value = params.get(name);
+        if (value == null) throw new IllegalArgumentException("missing " + name);
+        return value;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        var bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
@@ -0,0 +1,138 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class Portfolio {
+
+    private Map map;
+    private Position startPos;
+
+    // Moves used by every drone that finished its flight
+    private List<Integer> moveCounts = Collections.synchronizedList(new ArrayList<>());
+
+    // Legs shared by every drone, since drones of different seeds mostly fly the same legs, or null
+    private LegCache legCache;
+
+    public Portfolio(Map map, Position startPos) {
+        this.map = map;
+        this.startPos = startPos;
+    }
+
+    public List<Integer> getMoveCounts() {
+        return moveCounts;
+    }
+
+    public void setLegCache(LegCache legCache) {
+        this.legCache = legCache;
+    }
+
+    /**
+     * Checks whether the first drone's flight is better than the second one's: fewer unvisited
+     * sensors first, then returning to the start position, then fewer moves
+     *
+     * @param a        - first drone
+     * @param b        - second drone, may be null
+     * @param startPos - start position of both drones
+     * @return true if a is better than b, false otherwise
+     */
+    static boolean isBetter(Drone a, Drone b, Position startPos) {
+        if (b == null) return true;
+        var unvisitedA = a.getSensorsToVisit().size();
+        var unvisitedB = b.getSensorsToVisit().size();
+        if (unvisitedA != unvisitedB) return unvisitedA < unvisitedB;
+
+        var homeA = a.getCurrPos().closeToStart(startPos);
+        var homeB = b.getCurrPos().closeToStart(startPos);
+        if (homeA != homeB) return homeA;
+
+        return a.getMovesUsed() < b.getMovesUsed();
+    }
+
+    /**
+     * Flies one drone per seed on all available cores, each with its own random generator.
+     * Seeds that have not started yet are skipped once a complete flight uses at most targetMoves.
+     * The distance field to the start position, the costliest part of planning, is computed once
+     * and shared by every drone, which only read it
+     *
+     * @param firstSeed   - seed of the first drone, the following drones use the next seeds
+     * @param noOfSeeds   - number of drones to fly
+     * @param targetMoves - number of moves that is good enough to stop early
+     * @return the drone with the best flight
+     */
+    public Drone run(int firstSeed, int noOfSeeds, int targetMoves) throws IOException, InterruptedException {
+        var pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        var done = new AtomicBoolean(false);
+        var futures = new ArrayList<Future<Drone>>();
+        var homeField = new DistanceField(map.getObstacles(), startPos);
+
+        for (int i = 0; i < noOfSeeds; i++) {
+            var seed = firstSeed + i;
+            futures.add(pool.submit(() -> {
+                if (done.get()) return null;
+
+                var drone = new Drone(map, startPos, new Random(seed));
+                drone.setPrintPerformance(false);
+                drone.setHomeField(homeField);
+                drone.setLegCache(legCache);
+                drone.droneSimulator();
+                moveCounts.add(drone.getMovesUsed());
+
+                var complete = drone.getSensorsToVisit().isEmpty() && drone.getCurrPos().closeToStart(startPos);
+                if (complete && drone.getMovesUsed() <= targetMoves) done.set(true);
+                return drone;
+            }));
+        }
+        pool.shutdown();
+
+        Drone best = null;
+        try {
+            for (Future<Drone> f : futures) {
+                var drone = f.get();
+                if (drone != null && isBetter(drone, best, startPos)) best = drone;
+            }
+        } catch (ExecutionException e) {
+            pool.shutdownNow();
+            var cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            // Stop the drones still flying rather than leave them running after the caller gave up
+            pool.shutdownNow();
+            throw e;
+        }
+        return best;
+    }
+
+    /**
+     * Print the distribution of the moves used across seeds
+     */
+    public void printSummary() {
+        var counts = new ArrayList<>(moveCounts);
+        Collections.sort(counts);
+        var n = counts.size();
+        if (n == 0) return;
+
+        double sum = 0;
+        for (int c : counts) sum += c;
+
+        System.out.println("-----------------------------------------------------------------");
+        System.out.println("SEEDS FLOWN: " + n);
+        System.out.println("MOVES MIN: " + counts.get(0) + ", MEDIAN: " + counts.get(n/2)
+                + ", MEAN: " + String.format("%.1f", sum / n) + ", MAX: " + counts.get(n-1));
+
+        // Histogram of the moves used in buckets of 10 moves
+        var buckets = new int[16];
+        for (int c : counts) buckets[Math.min(c / 10, 15)]++;
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] > 0) System.out.println((i*10) + "-" + (i*10 + 9) + ": " + buckets[i]);
+        }
+    }
+}
@@ -2,6 +2,12 @@ package uk.ac.ed.inf.aqmaps;
 
 public class Position {
     
+    // Bounds of the drone confinement area, which the drone must stay strictly inside
+    public static final double MIN_LNG = -3.192473;
+    public static final double MAX_LNG = -3.184319;
+    public static final double MIN_LAT = 55.942617;
+    public static final double MAX_LAT = 55.946233;
+    
     // Attributes are final because they should be immutable
     private final double lng;
     private final double lat;
@@ -107,8 +113,8 @@ public class Position {
      * @return true if the drone within confinement area, false otherwise
      */
     public boolean inConfinementArea() {
-        boolean lng_check = lng > -3.192473 && lng < -3.184319;
-        boolean lat_check = lat > 55.942617 && lat < 55.946233;
+        boolean lng_check = lng > MIN_LNG && lng < MAX_LNG;
+        boolean lat_check = lat > MIN_LAT && lat < MAX_LAT;
         return lng_check && lat_check; 
     }
 }
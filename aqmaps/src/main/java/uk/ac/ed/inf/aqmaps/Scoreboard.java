@@ -0,0 +1,270 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.gson.GsonBuilder;
+import com.mapbox.geojson.Feature;
+
+public class Scoreboard {
+
+    // Rounds flown before measuring, so that the planner is compiled, and measured rounds per date
+    private static final int WARMUP = Integer.getInteger("aqmaps.bench.warmup", 3);
+    private static final int REPEATS = Integer.getInteger("aqmaps.bench.repeats", 15);
+
+    // Map without obstacles, whose distance field is the reference workload timed next to each flight
+    private static final Obstacles REFERENCE_OBSTACLES = new Obstacles(new ArrayList<Feature>());
+
+    private final Position startPos;
+    private final int seed;
+
+    // Legs replayed by every flight, or null to plan every flight from scratch
+    private LegCache legCache;
+
+    public Scoreboard(Position startPos, int seed) {
+        this.startPos = startPos;
+        this.seed = seed;
+    }
+
+    public void setLegCache(LegCache legCache) {
+        this.legCache = legCache;
+    }
+
+    public static class Entry {
+        public final String date;
+        public final double wallMs;
+        public final double timeRatio;
+        public final long allocatedBytes;
+        public final int movesUsed;
+        public final int sensorsVisited;
+        public final int sensorsTotal;
+        public final boolean backToStart;
+
+        public Entry(String date, double wallMs, double timeRatio, long allocatedBytes, int movesUsed,
+                int sensorsVisited, int sensorsTotal, boolean backToStart) {
+            this.date = date;
+            this.wallMs = wallMs;
+            this.timeRatio = timeRatio;
+            this.allocatedBytes = allocatedBytes;
+            this.movesUsed = movesUsed;
+            this.sensorsVisited = sensorsVisited;
+            this.sensorsTotal = sensorsTotal;
+            this.backToStart = backToStart;
+        }
+    }
+
+    /**
+     * Replays every date of the local fixtures, writes the scoreboard as CSV and JSON, and, if a
+     * baseline scoreboard is given, exits with status 1 when a date regressed. Times are compared
+     * through their ratio to the reference workload, since the raw times depend on the machine
+     *
+     * Usage: fixturesDirs lat lng seed output.csv [baseline.csv [threshold, default 0.1]]
+     *
+     * fixturesDirs are separated by the path separator, the first ones taking precedence, e.g.
+     * fixtures-buildings:fixtures flies the fixture dates around the four buildings of fixtures-buildings
+     *
+     * With -Daqmaps.legCache=file, every flight replays the legs of the file and of the flights
+     * before it, so that the scoreboard measures planning with a warm cache
+     *
+     * @param args
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        var fixtures = FixtureServer.parseRoots(args[0]);
+        var startPos = new Position(Double.parseDouble(args[2]), Double.parseDouble(args[1]));
+        var seed = Integer.parseInt(args[3]);
+        var output = args[4];
+
+        var fixtureServer = new FixtureServer(fixtures);
+        fixtureServer.start(0);
+        List<Entry> entries;
+        try {
+            App.port = String.valueOf(fixtureServer.getPort());
+            var scoreboard = new Scoreboard(startPos, seed);
+            var legCacheFile = System.getProperty("aqmaps.legCache");
+            if (legCacheFile != null) scoreboard.setLegCache(LegCache.load(Path.of(legCacheFile), LegCache.CAPACITY));
+            entries = scoreboard.run(findDates(fixtureServer));
+            if (legCacheFile != null) {
+                System.out.println(scoreboard.legCache);
+                scoreboard.legCache.save(Path.of(legCacheFile));
+            }
+        } finally {
+            fixtureServer.stop();
+        }
+
+        WriteFiles.writeToFile(output, toCsv(entries));
+        WriteFiles.writeToFile(output.replaceFirst("\\.csv$", "") + ".json",
+                new GsonBuilder().setPrettyPrinting().create().toJson(entries));
+        for (Entry e : entries) {
+            System.out.println(e.date + ": " + String.format(Locale.ROOT, "%.3fms (%.2fx reference)", e.wallMs, e.timeRatio) + ", "
+                    + e.allocatedBytes / 1024 + "KB, " + e.movesUsed + " moves, " + e.sensorsVisited + "/" + e.sensorsTotal + " sensors"
+                    + (e.backToStart ? ", back to start" : ", not back to start"));
+        }
+
+        if (args.length > 5) {
+            var threshold = args.length > 6 ? Double.parseDouble(args[6]) : 0.1;
+            var regressions = compare(readCsv(Path.of(args[5])), entries, threshold);
+            for (String regression : regressions) System.out.println("REGRESSION " + regression);
+            if (!regressions.isEmpty()) System.exit(1);
+        }
+    }
+
+    /**
+     * Finds the dates of the fixtures, laid out as maps/YYYY/MM/DD/air-quality-data.json in the
+     * first fixtures directory that has maps
+     *
+     * @param fixtures - server of the fixtures directories
+     * @return sorted List of dates as {day, month, year}
+     * @throws IOException
+     */
+    static List<String[]> findDates(FixtureServer fixtures) throws IOException {
+        var maps = fixtures.find("maps");
+        try (Stream<Path> paths = Files.walk(maps)) {
+            return paths.filter(p -> p.getFileName().toString().equals("air-quality-data.json"))
+                    .map(p -> maps.relativize(p.getParent()).toString().split("[/\\\\]"))
+                    .map(d -> new String[] {d[2], d[1], d[0]})
+                    .sorted((a, b) -> (a[2] + a[1] + a[0]).compareTo(b[2] + b[1] + b[0]))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Flies every date WARMUP times, so that the first date is not measured before the planner is
+     * compiled, then REPEATS more times, keeping the median planning time and the lowest allocation
+     * of the measured rounds. The maps are fetched before timing, so only planning is measured.
+     * Each round also times a reference workload, a distance field over an empty map, and the
+     * ratio of the fastest flight to the fastest reference is kept: it varies far less between
+     * machines than the time, and the fastest rounds are the least disturbed by the machine's load
+     *
+     * @param dates - List of dates as {day, month, year}
+     * @return one entry per date
+     */
+    public List<Entry> run(List<String[]> dates) throws IOException, InterruptedException {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().getId();
+
+        var maps = new ArrayList<Map>();
+        for (String[] date : dates) {
+            var map = new Map(date[0], date[1], date[2]);
+            for (Sensor sensor : map.getSensors()) sensor.toPosition();
+            map.getObstacles();
+            maps.add(map);
+        }
+        for (int i = 0; i < WARMUP; i++) {
+            for (Map map : maps) {
+                new DistanceField(REFERENCE_OBSTACLES, startPos);
+                var drone = new Drone(map, startPos, new Random(seed));
+                drone.setPrintPerformance(false);
+                drone.droneSimulator();
+            }
+        }
+
+        var entries = new ArrayList<Entry>();
+        for (int d = 0; d < dates.size(); d++) {
+            var date = dates.get(d);
+            var map = maps.get(d);
+            var times = new double[REPEATS];
+            var fastest = Long.MAX_VALUE;
+            var fastestReference = Long.MAX_VALUE;
+            var allocated = Long.MAX_VALUE;
+            Drone drone = null;
+            for (int i = 0; i < REPEATS; i++) {
+                var referenceStart = System.nanoTime();
+                new DistanceField(REFERENCE_OBSTACLES, startPos);
+                var referenceNanos = System.nanoTime() - referenceStart;
+
+                var bytesBefore = threads.getThreadAllocatedBytes(threadId);
+                var start = System.nanoTime();
+
+                drone = new Drone(map, startPos, new Random(seed));
+                drone.setPrintPerformance(false);
+                drone.setLegCache(legCache);
+                drone.droneSimulator();
+
+                var nanos = System.nanoTime() - start;
+                var bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+                times[i] = nanos / 1e6;
+                fastest = Math.min(fastest, nanos);
+                fastestReference = Math.min(fastestReference, referenceNanos);
+                allocated = Math.min(allocated, bytes);
+            }
+            Arrays.sort(times);
+
+            entries.add(new Entry(date[0] + "-" + date[1] + "-" + date[2], times[REPEATS / 2], (double) fastest / fastestReference, allocated,
+                    drone.getMovesUsed(), drone.getVisitedSensors().size(), map.getSensors().size(),
+                    drone.getCurrPos().closeToStart(startPos)));
+        }
+        return entries;
+    }
+
+    private static String toCsv(List<Entry> entries) {
+        var csv = new StringBuilder("date,wall_ms,time_ratio,allocated_bytes,moves_used,sensors_visited,sensors_total,back_to_start\n");
+        for (Entry e : entries) {
+            csv.append(e.date).append(',').append(String.format(Locale.ROOT, "%.3f,%.3f", e.wallMs, e.timeRatio)).append(',')
+                    .append(e.allocatedBytes).append(',').append(e.movesUsed).append(',')
+                    .append(e.sensorsVisited).append(',').append(e.sensorsTotal).append(',')
+                    .append(e.backToStart).append('\n');
+        }
+        return csv.toString();
+    }
+
+    private static List<Entry> readCsv(Path file) throws IOException {
+        var entries = new ArrayList<Entry>();
+        var lines = Files.readAllLines(file);
+        for (int i = 1; i < lines.size(); i++) {
+            if (lines.get(i).isBlank()) continue;
+            var f = lines.get(i).split(",");
+            entries.add(new Entry(f[0], Double.parseDouble(f[1]), Double.parseDouble(f[2]), Long.parseLong(f[3]),
+                    Integer.parseInt(f[4]), Integer.parseInt(f[5]), Integer.parseInt(f[6]), Boolean.parseBoolean(f[7])));
+        }
+        return entries;
+    }
+
+    /**
+     * Compares a scoreboard against a baseline. A date regressed if its moves or its time ratio to
+     * the reference workload grew by more than the threshold, or if it visits fewer sensors or no
+     * longer returns to start. The raw times and allocations are not compared
+     *
+     * @param baseline  - entries of the baseline scoreboard
+     * @param current   - entries of the new scoreboard
+     * @param threshold - allowed relative increase, e.g. 0.1 for 10%
+     * @return List of regressions, empty if there are none
+     */
+    public static List<String> compare(List<Entry> baseline, List<Entry> current, double threshold) {
+        var byDate = new HashMap<String, Entry>();
+        for (Entry e : current) byDate.put(e.date, e);
+
+        var regressions = new ArrayList<String>();
+        for (Entry base : baseline) {
+            var e = byDate.get(base.date);
+            if (e == null) {
+                regressions.add(base.date + ": missing from the scoreboard");
+                continue;
+            }
+            if (e.movesUsed > base.movesUsed * (1 + threshold)) {
+                regressions.add(base.date + ": moves used " + base.movesUsed + " -> " + e.movesUsed);
+            }
+            if (e.timeRatio > base.timeRatio * (1 + threshold)) {
+                regressions.add(base.date + ": time ratio " + String.format(Locale.ROOT, "%.3f -> %.3f", base.timeRatio, e.timeRatio));
+            }
+            if (e.sensorsVisited < base.sensorsVisited) {
+                regressions.add(base.date + ": sensors visited " + base.sensorsVisited + " -> " + e.sensorsVisited);
+            }
+            if (base.backToStart && !e.backToStart) {
+                regressions.add(base.date + ": no longer returns to the start position");
+            }
+        }
+        return regressions;
+    }
+}
@@ -1,20 +1,114 @@
 package uk.ac.ed.inf.aqmaps;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
 import com.mapbox.geojson.*;
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 public class Sensor {
     private final String location;
     private float battery;
     private String reading;
     
+    // Coordinates of the What3Words address, fetched on first use
+    private volatile Position position;
+    
     public Sensor(String location, float battery, String reading) {
         this.location = location;
         this.battery = battery;
         this.reading = reading;
     }
     
+    /**
+     * Creates a sensor whose coordinates are already known, e.g. loaded from a map artefact
+     * 
+     * @param position - coordinates of the What3Words address
+     */
+    public Sensor(String location, float battery, String reading, Position position) {
+        this(location, battery, reading);
+        this.position = position;
+    }
+    
+    /**
+     * Times reading the sensors of every date of the fixtures from the bytes of their
+     * air-quality-data.json, streamed by readSensors, against decoding the bytes to a String
+     * and binding it with Gson as the sensors used to be read. The bytes are read from disk
+     * beforehand, as JsonParser.openStream buffers the whole response body in either case
+     *
+     * Usage: fixturesDirs [rounds, default 200], fixturesDirs as in Scoreboard
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        var fixtureServer = new FixtureServer(FixtureServer.parseRoots(args[0]));
+        var rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        var bodies = new ArrayList<byte[]>();
+        for (String[] date : Scoreboard.findDates(fixtureServer)) {
+            bodies.add(Files.readAllBytes(fixtureServer.find("maps/" + date[2] + "/" + date[1] + "/" + date[0] + "/air-quality-data.json")));
+        }
+
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().getId();
+        Type listType = new TypeToken<ArrayList<Sensor>>() {}.getType();
+        var gson = new Gson();
+
+        // Warm up both, so that neither is measured before it is compiled
+        for (int i = 0; i < rounds; i++) {
+            for (byte[] body : bodies) {
+                readSensors(new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8)));
+                gson.fromJson(new String(body, StandardCharsets.UTF_8), listType);
+            }
+        }
+
+        var streamed = Long.MAX_VALUE;
+        var bound = Long.MAX_VALUE;
+        var streamedBytes = Long.MAX_VALUE;
+        var boundBytes = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            var bytesBefore = threads.getThreadAllocatedBytes(threadId);
+            var start = System.nanoTime();
+            for (byte[] body : bodies) {
+                readSensors(new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8)));
+            }
+            streamed = Math.min(streamed, System.nanoTime() - start);
+            streamedBytes = Math.min(streamedBytes, threads.getThreadAllocatedBytes(threadId) - bytesBefore);
+
+            bytesBefore = threads.getThreadAllocatedBytes(threadId);
+            start = System.nanoTime();
+            for (byte[] body : bodies) {
+                gson.fromJson(new String(body, StandardCharsets.UTF_8), listType);
+            }
+            bound = Math.min(bound, System.nanoTime() - start);
+            boundBytes = Math.min(boundBytes, threads.getThreadAllocatedBytes(threadId) - bytesBefore);
+        }
+
+        System.out.println(bodies.size() + " dates, best of " + rounds + " rounds");
+        System.out.println(String.format(Locale.ROOT, "Streamed:      %.1fus per date, %dKB per date",
+                streamed / 1e3 / bodies.size(), streamedBytes / 1024 / bodies.size()));
+        System.out.println(String.format(Locale.ROOT, "String + Gson: %.1fus per date, %dKB per date",
+                bound / 1e3 / bodies.size(), boundBytes / 1024 / bodies.size()));
+    }
+    
+    /**
+     * Gets the battery as stored, without widening it to a double
+     * 
+     * @return battery level
+     */
+    float getRawBattery() {
+        return battery;
+    }
+    
     public String getLocation() {
         return location;
     }
@@ -33,12 +127,14 @@ public class Sensor {
      * @return Position of the sensor
      */
     public Position toPosition() throws IOException, InterruptedException {
-        
-        // Get sensor details with the split What3Words
-        var det = parseSensorDetails();  
-        
-        // Return the coordinates of the address
-        return det.getCoordinates();
+        if (position == null) {
+            // Get sensor details with the split What3Words
+            var det = parseSensorDetails();  
+            
+            // Store the coordinates of the address
+            position = det.getCoordinates();
+        }
+        return position;
     }
     
     /**
@@ -69,12 +165,80 @@ public class Sensor {
         
         var what3word = splitLoc[0] + "/" + splitLoc[1] + "/" + splitLoc[2];
         var urlString = "http://localhost:" + App.port + "/words/" + what3word + "/details.json";
-        var json = JsonParser.readJson(urlString);
-        
-        // Deserialising a JSON record to a Java object using its type
-        SensorDetails details = new Gson().fromJson(json, SensorDetails.class);
         
-        return details;
+        // Stream the JSON record straight from the response body
+        try (var reader = new JsonReader(new InputStreamReader(JsonParser.openStream(urlString), StandardCharsets.UTF_8))) {
+            return SensorDetails.readSensorDetails(reader);
+        }
+    }
+    
+    /**
+     * Reads a JSON list of sensors, keeping only their location, battery and reading
+     * 
+     * @param reader - JsonReader positioned at the start of the list
+     * @return List of sensors
+     * @throws IOException
+     */
+    public static List<Sensor> readSensors(JsonReader reader) throws IOException {
+        var sensors = new ArrayList<Sensor>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String location = null;
+            float battery = 0;
+            var reading = "null";
+            
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "location":
+                        location = reader.nextString();
+                        break;
+                    case "battery":
+                        battery = (float) reader.nextDouble();
+                        break;
+                    case "reading":
+                        // Readings are strings, but accept a JSON null as well
+                        if (reader.peek() == JsonToken.NULL) reader.nextNull();
+                        else reading = reader.nextString();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            sensors.add(new Sensor(location, battery, reading));
+        }
+        reader.endArray();
+        return sensors;
+    }
+    
+    /**
+     * Outputs the RGB string according to the value of an air quality reading
+     * 
+     * @param r - air quality reading
+     * @return RGB string
+     */
+    public static String getRGBString(double r) {
+        var rgbString = "";
+        if (r >= 0 && r < 32) rgbString = "#00ff00";
+        else if (r >= 32 && r < 64) rgbString = "#40ff00";
+        else if (r >=64 && r < 96) rgbString = "#80ff00";
+        else if (r >= 96 && r < 128) rgbString = "#c0ff00";
+        else if (r >= 128 && r < 160) rgbString = "#ffc000";
+        else if (r >= 160 && r < 192) rgbString = "#ff8000";
+        else if (r >= 192 && r < 224) rgbString = "#ff4000";
+        else if (r >= 224 && r < 256) rgbString = "#ff0000";
+        return rgbString;
+    }
+    
+    /**
+     * Checks whether the reading of the sensor can be trusted, i.e. the battery is not low
+     * and the reading is a number
+     * 
+     * @return true if the reading is valid, false otherwise
+     */
+    public boolean hasValidReading() {
+        return !(battery < 10 || reading.equals("NaN") || reading.equals("null"));
     }
     
     /**
@@ -85,19 +249,14 @@ public class Sensor {
     public String[] getProperties() {
         var rgbString = "";
         var markerSymbol = "";
-        if (battery < 10 || reading.equals("NaN") || reading.equals("null")) {
+        if (!hasValidReading()) {
             rgbString = "#000000";
             markerSymbol = "cross";
         } else {
             double r = Double.parseDouble(reading);
-            if (r >= 0 && r < 32) { rgbString = "#00ff00"; markerSymbol = "lighthouse"; }
-            else if (r >= 32 && r < 64) { rgbString = "#40ff00"; markerSymbol = "lighthouse"; }
-            else if (r >=64 && r < 96) { rgbString = "#80ff00"; markerSymbol = "lighthouse"; }
-            else if (r >= 96 && r < 128) { rgbString = "#c0ff00"; markerSymbol = "lighthouse"; }
-            else if (r >= 128 && r < 160) { rgbString = "#ffc000"; markerSymbol = "danger"; }
-            else if (r >= 160 && r < 192) { rgbString = "#ff8000"; markerSymbol = "danger"; }
-            else if (r >= 192 && r < 224) { rgbString = "#ff4000"; markerSymbol = "danger"; }
-            else if (r >= 224 && r < 256) { rgbString = "#ff0000"; markerSymbol = "danger"; }
+            rgbString = getRGBString(r);
+            if (r >= 0 && r < 128) markerSymbol = "lighthouse";
+            else if (r >= 128 && r < 256) markerSymbol = "danger";
         }
         return new String[] {rgbString, markerSymbol};
     }
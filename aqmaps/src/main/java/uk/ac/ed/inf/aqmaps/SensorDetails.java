@@ -1,20 +1,65 @@
 package uk.ac.ed.inf.aqmaps;
 
+import java.io.IOException;
+
+import com.google.gson.stream.JsonReader;
+
 public class SensorDetails {
-    private String country;
-    private Square square;
-    private String nearestPlace;
     private Position coordinates;
-    private String words;
-    private String language;
-    private String map;
-   
-    public static class Square {
-        Position southwest;
-        Position northeast;
+    
+    public SensorDetails(Position coordinates) {
+        this.coordinates = coordinates;
     }
     
     public Position getCoordinates() {
         return coordinates;
     }   
+    
+    /**
+     * Reads a What3Words details record, keeping only the coordinates of the address
+     * 
+     * @param reader - JsonReader positioned at the start of the record
+     * @return The corresponding SensorDetails object
+     * @throws IOException
+     */
+    public static SensorDetails readSensorDetails(JsonReader reader) throws IOException {
+        Position coordinates = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("coordinates")) {
+                coordinates = readPosition(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new SensorDetails(coordinates);
+    }
+    
+    /**
+     * Reads a JSON object with lng and lat fields
+     * 
+     * @param reader - JsonReader positioned at the start of the object
+     * @return Position object
+     * @throws IOException
+     */
+    private static Position readPosition(JsonReader reader) throws IOException {
+        double lng = 0;
+        double lat = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "lng":
+                    lng = reader.nextDouble();
+                    break;
+                case "lat":
+                    lat = reader.nextDouble();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new Position(lng, lat);
+    }
 }
@@ -0,0 +1,353 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.LineString;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+public class TileRenderer {
+
+    private static final int TILE_SIZE = 256;
+
+    // Radius of a sensor marker in pixels, also used to pad the bounds of every feature
+    private static final int MARKER_RADIUS = 6;
+
+    private static final Color PATH_COLOR = new Color(0x33, 0x33, 0x33);
+
+    // Colour of markers and cells without a valid "#rrggbb" colour, e.g. the empty colour that
+    // Sensor.getRGBString gives to readings outside [0, 256)
+    private static final String MISSING_COLOR = "#aaaaaa";
+
+    private final List<Feature> features;
+
+    // Bounding box of every feature in longitude and latitude (minLng, minLat, maxLng, maxLat)
+    private final double[][] bounds;
+
+    private final AtomicInteger rendered = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger deleted = new AtomicInteger();
+
+    public TileRenderer(List<Feature> features) {
+        this.features = features;
+        this.bounds = new double[features.size()][];
+        for (int i = 0; i < features.size(); i++) {
+            bounds[i] = bounds(coordinates(features.get(i)));
+        }
+    }
+
+    /**
+     * Renders heatmap cells, sensor markers and flight paths of GeoJSON files into a z/x/y PNG
+     * tile pyramid. Polygons are filled with their "fill" colour, points are drawn with their
+     * "marker-color" (as set by Sensor.getProperties) and line strings as dark paths.
+     *
+     * Usage: outputDir minZoom maxZoom file.geojson...
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        var outputDir = Path.of(args[0]);
+        var minZoom = Integer.parseInt(args[1]);
+        var maxZoom = Integer.parseInt(args[2]);
+
+        var features = new ArrayList<Feature>();
+        for (int i = 3; i < args.length; i++) {
+            features.addAll(FeatureCollection.fromJson(Files.readString(Path.of(args[i]))).features());
+        }
+
+        var start = System.nanoTime();
+        var renderer = new TileRenderer(features);
+        renderer.render(outputDir, minZoom, maxZoom);
+        System.out.println("Rendered " + renderer.getRendered() + " tiles, skipped " + renderer.getSkipped()
+                + " unchanged tiles, deleted " + renderer.getDeleted() + " empty tiles, in " + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+
+    public int getRendered() {
+        return rendered.get();
+    }
+
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    public int getDeleted() {
+        return deleted.get();
+    }
+
+    /**
+     * Renders every tile of the given zoom levels that contains a feature, in parallel. A tile is
+     * skipped if the hash of its features matches the hash stored next to it by the previous render,
+     * and a tile of a previous render that no longer contains any feature is deleted
+     *
+     * @param outputDir - directory of the pyramid
+     * @param minZoom   - lowest zoom level
+     * @param maxZoom   - highest zoom level
+     * @throws IOException
+     */
+    public void render(Path outputDir, int minZoom, int maxZoom) throws IOException {
+        var tiles = new ArrayList<int[]>();
+        for (int z = minZoom; z <= maxZoom; z++) {
+            tiles.addAll(tilesAt(z));
+        }
+        var kept = ConcurrentHashMap.<Path>newKeySet();
+        try {
+            tiles.parallelStream().forEach(tile -> {
+                var tileFile = renderTile(outputDir, tile[0], tile[1], tile[2]);
+                if (tileFile != null) kept.add(tileFile);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        for (int z = minZoom; z <= maxZoom; z++) {
+            deleteStaleTiles(outputDir.resolve(String.valueOf(z)), kept);
+        }
+    }
+
+    /**
+     * Deletes the tiles of a zoom level, and their hashes, that the last render did not keep. Only
+     * PNG files with a hash next to them are deleted, so files not written by the renderer stay
+     *
+     * @param zoomDir - directory of the zoom level
+     * @param kept    - tiles rendered or skipped by the last render
+     * @throws IOException
+     */
+    private void deleteStaleTiles(Path zoomDir, Set<Path> kept) throws IOException {
+        if (!Files.isDirectory(zoomDir)) return;
+        List<Path> stale;
+        try (Stream<Path> files = Files.walk(zoomDir)) {
+            stale = files.filter(f -> f.toString().endsWith(".png") && !kept.contains(f))
+                    .filter(f -> Files.isRegularFile(Path.of(f + ".sha256")))
+                    .collect(Collectors.toList());
+        }
+        for (Path tileFile : stale) {
+            Files.delete(tileFile);
+            Files.delete(Path.of(tileFile + ".sha256"));
+            deleted.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the tiles of a zoom level covered by the bounding box of at least one feature
+     *
+     * @param z - zoom level
+     * @return List of (z, x, y) triples
+     */
+    private List<int[]> tilesAt(int z) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (double[] b : bounds) {
+            if (b == null) continue;
+            minX = Math.min(minX, pixelX(b[0], z) - MARKER_RADIUS);
+            maxX = Math.max(maxX, pixelX(b[2], z) + MARKER_RADIUS);
+            minY = Math.min(minY, pixelY(b[3], z) - MARKER_RADIUS);
+            maxY = Math.max(maxY, pixelY(b[1], z) + MARKER_RADIUS);
+        }
+        var tiles = new ArrayList<int[]>();
+        if (minX > maxX) return tiles;
+        for (int x = (int) (minX / TILE_SIZE); x <= (int) (maxX / TILE_SIZE); x++) {
+            for (int y = (int) (minY / TILE_SIZE); y <= (int) (maxY / TILE_SIZE); y++) {
+                tiles.add(new int[] {z, x, y});
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Renders one tile, unless it holds no feature or its features did not change
+     *
+     * @return the tile file, or null if the tile holds no feature
+     */
+    private Path renderTile(Path outputDir, int z, int x, int y) {
+        // Features whose padded bounding box overlaps the tile
+        var inTile = new ArrayList<Feature>();
+        for (int i = 0; i < features.size(); i++) {
+            var b = bounds[i];
+            if (b == null) continue;
+            if (pixelX(b[2], z) + MARKER_RADIUS < (double) x * TILE_SIZE
+                    || pixelX(b[0], z) - MARKER_RADIUS > (x + 1.0) * TILE_SIZE) continue;
+            if (pixelY(b[1], z) + MARKER_RADIUS < (double) y * TILE_SIZE
+                    || pixelY(b[3], z) - MARKER_RADIUS > (y + 1.0) * TILE_SIZE) continue;
+            inTile.add(features.get(i));
+        }
+        if (inTile.isEmpty()) return null;
+
+        try {
+            var tileFile = outputDir.resolve(z + "/" + x + "/" + y + ".png");
+            var hashFile = outputDir.resolve(z + "/" + x + "/" + y + ".png.sha256");
+            var hash = contentHash(inTile);
+            if (Files.isRegularFile(tileFile) && Files.isRegularFile(hashFile) && Files.readString(hashFile).equals(hash)) {
+                skipped.incrementAndGet();
+                return tileFile;
+            }
+
+            Files.createDirectories(tileFile.getParent());
+            ImageIO.write(draw(inTile, z, x, y), "png", tileFile.toFile());
+            Files.writeString(hashFile, hash);
+            rendered.incrementAndGet();
+            return tileFile;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Draws the features of a tile: heatmap cells first, then flight paths, then sensor markers
+     *
+     * @param inTile - features of the tile
+     * @return the tile image
+     */
+    private BufferedImage draw(List<Feature> inTile, int z, int x, int y) {
+        var image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        var g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        // Draw relative to the tile origin, as Java2D rasterises in single precision
+        var ox = (double) x * TILE_SIZE;
+        var oy = (double) y * TILE_SIZE;
+
+        for (Feature f : inTile) {
+            if (f.geometry() instanceof Polygon && f.hasProperty("fill")) {
+                var opacity = f.hasProperty("fill-opacity") ? f.getNumberProperty("fill-opacity").floatValue() : 1f;
+                g.setColor(color(f.getStringProperty("fill"), opacity));
+                g.fill(path(((Polygon) f.geometry()).coordinates().get(0), z, ox, oy, true));
+            }
+        }
+        g.setStroke(new BasicStroke(2f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        for (Feature f : inTile) {
+            if (f.geometry() instanceof LineString) {
+                g.setColor(PATH_COLOR);
+                g.draw(path(((LineString) f.geometry()).coordinates(), z, ox, oy, false));
+            }
+        }
+        for (Feature f : inTile) {
+            if (f.geometry() instanceof Point) {
+                var p = (Point) f.geometry();
+                var colour = f.hasProperty("marker-color") ? f.getStringProperty("marker-color") : MISSING_COLOR;
+                var marker = new Ellipse2D.Double(pixelX(p.longitude(), z) - ox - MARKER_RADIUS,
+                        pixelY(p.latitude(), z) - oy - MARKER_RADIUS, 2 * MARKER_RADIUS, 2 * MARKER_RADIUS);
+                g.setColor(color(colour, 1f));
+                g.fill(marker);
+                g.setColor(Color.BLACK);
+                g.setStroke(new BasicStroke(1f));
+                g.draw(marker);
+            }
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static Path2D path(List<Point> points, int z, double ox, double oy, boolean close) {
+        var path = new Path2D.Double();
+        for (int i = 0; i < points.size(); i++) {
+            var px = pixelX(points.get(i).longitude(), z) - ox;
+            var py = pixelY(points.get(i).latitude(), z) - oy;
+            if (i == 0) path.moveTo(px, py);
+            else path.lineTo(px, py);
+        }
+        if (close) path.closePath();
+        return path;
+    }
+
+    /**
+     * Parses a "#rrggbb" colour, falling back to MISSING_COLOR for any other string
+     *
+     * @param rgbString - colour of a feature
+     * @param opacity   - opacity, from 0 to 1
+     * @return the colour
+     */
+    static Color color(String rgbString, float opacity) {
+        if (rgbString == null || !rgbString.matches("#[0-9a-fA-F]{6}")) rgbString = MISSING_COLOR;
+        var rgb = Integer.parseInt(rgbString.substring(1), 16);
+        return new Color((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff, Math.round(opacity * 255));
+    }
+
+    /**
+     * Hashes the features of a tile, so that a tile is only re-rendered when its content changes
+     *
+     * @param inTile - features of the tile
+     * @return hexadecimal SHA-256 of the features
+     */
+    private static String contentHash(List<Feature> inTile) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            for (Feature f : inTile) {
+                digest.update(f.toJson().getBytes(StandardCharsets.UTF_8));
+            }
+            var hex = new StringBuilder();
+            for (byte b : digest.digest()) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<Point> coordinates(Feature f) {
+        if (f.geometry() instanceof Point) return List.of((Point) f.geometry());
+        if (f.geometry() instanceof LineString) return ((LineString) f.geometry()).coordinates();
+        if (f.geometry() instanceof Polygon) return ((Polygon) f.geometry()).coordinates().get(0);
+        return List.of();
+    }
+
+    private static double[] bounds(List<Point> points) {
+        if (points.isEmpty()) return null;
+        var b = new double[] {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (Point p : points) {
+            b[0] = Math.min(b[0], p.longitude());
+            b[1] = Math.min(b[1], p.latitude());
+            b[2] = Math.max(b[2], p.longitude());
+            b[3] = Math.max(b[3], p.latitude());
+        }
+        return b;
+    }
+
+    private static double worldSize(int z) {
+        return (double) TILE_SIZE * (1L << z);
+    }
+
+    /**
+     * Projects a longitude to the Web Mercator pixel x coordinate at a zoom level
+     *
+     * @param lng - longitude
+     * @param z   - zoom level
+     * @return pixel x coordinate
+     */
+    public static double pixelX(double lng, int z) {
+        return (lng + 180) / 360 * worldSize(z);
+    }
+
+    /**
+     * Projects a latitude to the Web Mercator pixel y coordinate at a zoom level
+     *
+     * @param lat - latitude
+     * @param z   - zoom level
+     * @return pixel y coordinate
+     */
+    public static double pixelY(double lat, int z) {
+        var phi = Math.toRadians(lat);
+        return (1 - Math.log(Math.tan(phi) + 1 / Math.cos(phi)) / Math.PI) / 2 * worldSize(z);
+    }
+}
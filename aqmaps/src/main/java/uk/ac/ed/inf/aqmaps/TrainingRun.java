@@ -0,0 +1,26 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class TrainingRun {
+
+    /**
+     * Flies one date from the local fixtures, so that a class data sharing archive can be
+     * dumped with every class loaded by a real run (HTTP client, Gson, Mapbox GeoJSON)
+     *
+     * @param args - fixtures directory, then the usual arguments of App without the port
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        var fixtureServer = new FixtureServer(Path.of(args[0]));
+        fixtureServer.start(0);
+        try {
+            App.main(new String[] {args[1], args[2], args[3], args[4], args[5], args[6],
+                    String.valueOf(fixtureServer.getPort())});
+        } finally {
+            fixtureServer.stop();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package uk.ac.ed.inf.aqmaps;
+
+public class VisitEvent {
+    private final Sensor sensor;
+    private final Position position;
+    private final int moveIndex;
+    
+    public VisitEvent(Sensor sensor, Position position, int moveIndex) {
+        this.sensor = sensor;
+        this.position = position;
+        this.moveIndex = moveIndex;
+    }
+    
+    public Sensor getSensor() {
+        return sensor;
+    }
+    
+    public String getLocation() {
+        return sensor.getLocation();
+    }
+    
+    public String getReading() {
+        return sensor.getReading();
+    }
+    
+    public double getBattery() {
+        return sensor.getBattery();
+    }
+    
+    // Position of the sensor
+    public Position getPosition() {
+        return position;
+    }
+    
+    // Number of the move during which the sensor was read
+    public int getMoveIndex() {
+        return moveIndex;
+    }
+}
@@ -1,11 +1,19 @@
 package uk.ac.ed.inf.aqmaps;
 
 import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import com.mapbox.geojson.*;
 
@@ -16,10 +24,10 @@ public class WriteFiles {
      * @param path - flight path of the drone
      * @return Feature object
      */
-    public static Feature displayPath(List<Position> path) {
-        List<Point> points = new ArrayList<>();
-        for (Position pos : path) {
-            points.add(Point.fromLngLat(pos.getLng(), pos.getLat()));
+    public static Feature displayPath(FlightPath path) {
+        List<Point> points = new ArrayList<>(path.getNoOfPositions());
+        for (int i = 0; i < path.getNoOfPositions(); i++) {
+            points.add(Point.fromLngLat(path.getLng(i), path.getLat(i)));
         }
         var ls = LineString.fromLngLats(points);
         var myFeature = Feature.fromGeometry(ls);
@@ -37,7 +45,7 @@ public class WriteFiles {
      * @throws InterruptedException
      * @return List of Feature objects
      */
-    public static List<Feature> displayMap(List<Sensor> visitedSensors, List<Sensor> unvisitedSensors) throws IOException, InterruptedException {
+    public static List<Feature> displayMap(List<Sensor> visitedSensors, Collection<Sensor> unvisitedSensors) throws IOException, InterruptedException {
         List<Feature> features = new ArrayList<>();
         
         for (Sensor visited : visitedSensors) {
@@ -55,6 +63,24 @@ public class WriteFiles {
         return features;
     }
     
+    /**
+     * Outputs the sensors and the flight path of a drone as a FeatureCollection
+     * 
+     * @param drone - drone that has finished its flight
+     * @throws IOException
+     * @throws InterruptedException
+     * @return FeatureCollection object
+     */
+    public static FeatureCollection displayFlight(Drone drone) throws IOException, InterruptedException {
+        var geojson = displayMap(drone.getVisitedSensors(), drone.getSensorsToVisit());
+        geojson.add(displayPath(drone.getFlightPath()));
+        
+        // ** FOR TESTING PURPOSES **
+        //geojson.add(displayConfinementArea(-3.192473,-3.184319,55.946233,55.942617));
+        
+        return FeatureCollection.fromFeatures(geojson);
+    }
+    
     /**
      * Outputs the drone confinement area as a Feature object for debugging purposes
      * 
@@ -83,9 +109,23 @@ public class WriteFiles {
      * @throws IOException
      */
     public static void writeToFile(String fname, String str) throws IOException {
+        var event = FlightEvents.ENABLED ? beginWrite(fname) : null;
         var writer = new BufferedWriter(new FileWriter(fname));
         writer.write(str);
         writer.close();
+        if (event != null) commitWrite(event);
+    }
+    
+    private static FlightEvents.FileWrite beginWrite(String fname) {
+        var event = new FlightEvents.FileWrite();
+        event.file = fname;
+        event.begin();
+        return event;
+    }
+    
+    private static void commitWrite(FlightEvents.FileWrite event) throws IOException {
+        event.bytes = Files.size(Path.of(event.file));
+        event.commit();
     }
     
     /**
@@ -98,11 +138,35 @@ public class WriteFiles {
      * @throws IOException
      */
     public static void writeGeoJSON(FeatureCollection fc, String day, String month, String year) throws IOException {
-        // Create a JSON-formatted string of the feature collection
-        var json = fc.toJson();
-        // Create output file 
         var date = day + "-" + month + "-" + year;
-        writeToFile("readings-" + date + ".geojson", json);
+        writeGeoJSON(fc, "readings-" + date + ".geojson");
+    }
+    
+    /**
+     * Writes the input FeatureCollection to a .geojson file. With -Daqmaps.precision=n the coordinates
+     * are rounded to n decimals by GeoJsonEncoder, and with -Daqmaps.gzip=true the file is compressed
+     * while it is written and ".gz" is appended to its name
+     * 
+     * @param fc    - FeatureCollection object
+     * @param fname - file to be written to
+     * @throws IOException
+     */
+    public static void writeGeoJSON(FeatureCollection fc, String fname) throws IOException {
+        var precision = Integer.getInteger("aqmaps.precision");
+        var gzip = Boolean.getBoolean("aqmaps.gzip");
+        var file = gzip ? fname + ".gz" : fname;
+        
+        var event = FlightEvents.ENABLED ? beginWrite(file) : null;
+        OutputStream out = new FileOutputStream(file);
+        if (gzip) out = new GZIPOutputStream(out, 8192);
+        try (var writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            if (precision != null) {
+                new GeoJsonEncoder(precision).write(fc, writer);
+            } else {
+                writer.write(fc.toJson());
+            }
+        }
+        if (event != null) commitWrite(event);
     }
     
     /**
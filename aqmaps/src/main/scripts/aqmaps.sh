@@ -0,0 +1,12 @@
+#!/bin/sh
+# Runs aqmaps with the class data sharing archive built by the cds profile, if present.
+# Usage: aqmaps.sh DD MM YYYY lat lng seed port
+DIR="$(cd "$(dirname "$0")" && pwd)"
+JAR="$DIR/${project.build.finalName}.jar"
+JSA="$DIR/aqmaps.jsa"
+
+if [ -f "$JSA" ]; then
+    exec java -XX:SharedArchiveFile="$JSA" -Xshare:auto -jar "$JAR" "$@"
+else
+    exec java -jar "$JAR" "$@"
+fi
@@ -1,7 +1,41 @@
 package uk.ac.ed.inf.aqmaps;
 
 //import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
 //import java.util.Random;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.sun.net.httpserver.HttpServer;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -109,6 +143,815 @@ public class AppTest
         assertTrue(approxEq(p0, p2));
     }
     
+    Feature square(double lng, double lat, double side) {
+        var corners = Arrays.asList(Point.fromLngLat(lng, lat), Point.fromLngLat(lng + side, lat),
+                Point.fromLngLat(lng + side, lat + side), Point.fromLngLat(lng, lat + side), Point.fromLngLat(lng, lat));
+        return Feature.fromGeometry(Polygon.fromLngLats(Arrays.asList(corners)));
+    }
+    
+    public void testObstaclesIntersect() {
+        var obstacles = new Obstacles(Arrays.asList(square(-3.1883, 55.9444, 0.0001)));
+        assertTrue(obstacles.intersects(p0, p0.nextPosition(0)));
+        assertFalse(obstacles.intersects(p0, p0.nextPosition(180)));
+    }
+    
+    public void testObstaclesAddZone() {
+        var obstacles = new Obstacles(new ArrayList<Feature>());
+        assertFalse(obstacles.intersects(p0, p0.nextPosition(180)));
+        obstacles.add(square(-3.1886, 55.9444, 0.0001));
+        assertTrue(obstacles.intersects(p0, p0.nextPosition(180)));
+        assertEquals(4, obstacles.getNoOfEdges());
+        assertEquals(1, obstacles.getVersion());
+    }
+    
+    public void testObstaclesContains() {
+        var obstacles = new Obstacles(Arrays.asList(square(-3.1883, 55.9444, 0.0001)));
+        assertTrue(obstacles.contains(new Position(-3.18825, 55.94445)));
+        assertFalse(obstacles.contains(p0));
+    }
+    
+    public void testBlockedHeadingsMatchIntersects() {
+        var obstacles = new Obstacles(Arrays.asList(square(-3.1883, 55.9444, 0.0001), square(-3.1886, 55.9446, 0.0001)));
+        var edge = new Position(-3.1924, 55.9444);
+        for (Position from : Arrays.asList(p0, edge)) {
+            var blocked = obstacles.blockedHeadings(from);
+            for (int i = 0; i < 36; i++) {
+                var to = from.nextPosition(i * 10);
+                var expected = obstacles.intersects(from, to) || !to.inConfinementArea();
+                assertEquals(expected, (blocked & (1L << i)) != 0);
+            }
+        }
+        assertTrue(obstacles.blockedHeadings(p0) != 0);
+    }
+
+    public void testLongIntHashMapGrows() {
+        var map = new LongIntHashMap(4);
+        for (int i = 0; i < 1000; i++) {
+            map.put(i * 31L - 500, i);
+        }
+        assertEquals(1000, map.size());
+        assertEquals(999, map.get(999 * 31L - 500, -1));
+        assertEquals(-1, map.get(7, -1));
+    }
+    
+    public void testDistanceFieldFromStart() {
+        var field = new DistanceField(new Obstacles(new ArrayList<Feature>()), p0);
+        assertEquals(0, field.getMovesToHome(p0));
+        assertEquals(1, field.getMovesToHome(p0.nextPosition(90)));
+        assertEquals(3, field.getMovesToHome(p0.nextPosition(0).nextPosition(0).nextPosition(0)));
+    }
+    
+    public void testDistanceFieldRepair() {
+        var field = new DistanceField(new Obstacles(new ArrayList<Feature>()), p0);
+        var zone = square(-3.1886, 55.9444, 0.0001);
+        var obstacles = new Obstacles(Arrays.asList(zone));
+        var repaired = field.repair(obstacles, new Obstacles(Arrays.asList(zone)));
+        var full = new DistanceField(obstacles, p0);
+
+        // The move west now crosses the zone, the field it was repaired from is left unchanged
+        var west = p0.nextPosition(180);
+        assertEquals(1, field.getMovesToHome(west));
+        assertEquals(full.getMovesToHome(west), repaired.getMovesToHome(west));
+        assertTrue(repaired.getMovesToHome(west) > 1);
+        var east = p0.nextPosition(0).nextPosition(0);
+        assertEquals(2, repaired.getMovesToHome(east));
+        assertEquals(full.getNoOfCells(), repaired.getNoOfCells());
+    }
+    
+    public void testReadJsonRetriesAndDecompresses() throws Exception {
+        var calls = new AtomicInteger();
+        var server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/maps/", exchange -> {
+            // Fail the first request, then answer with a gzip body
+            if (calls.incrementAndGet() == 1) {
+                exchange.sendResponseHeaders(503, -1);
+            } else {
+                var bytes = new ByteArrayOutputStream();
+                try (var gzip = new GZIPOutputStream(bytes)) {
+                    gzip.write("[]".getBytes(StandardCharsets.UTF_8));
+                }
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, bytes.size());
+                exchange.getResponseBody().write(bytes.toByteArray());
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            var url = "http://localhost:" + server.getAddress().getPort();
+            assertEquals("[]", JsonParser.readJson(url + "/maps/2020/01/01/air-quality-data.json"));
+            assertEquals(2, calls.get());
+            assertTrue(JsonParser.getLatencies().get("maps").getCount() >= 1);
+            
+            // Client errors are not retried
+            try {
+                JsonParser.readJson(url + "/missing.json");
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("HTTP 404"));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+    
+    public void testReadJsonRetriesBrokenBodies() throws Exception {
+        var calls = new AtomicInteger();
+        var server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/maps/", exchange -> {
+            var call = calls.incrementAndGet();
+            var bytes = new ByteArrayOutputStream();
+            try (var gzip = new GZIPOutputStream(bytes)) {
+                gzip.write("[1,2,3]".getBytes(StandardCharsets.UTF_8));
+            }
+            var body = bytes.toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            if (call == 1) {
+                // Headers announce the full body, but the connection closes half way through it
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body, 0, body.length / 2);
+                exchange.getResponseBody().flush();
+                exchange.close();
+                return;
+            }
+            if (call == 2) {
+                // Complete body, but not valid gzip
+                body = Arrays.copyOf(body, body.length);
+                body[body.length - 5] ^= 0x55;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        try {
+            var url = "http://localhost:" + server.getAddress().getPort();
+            assertEquals("[1,2,3]", JsonParser.readJson(url + "/maps/2020/02/02/air-quality-data.json"));
+            assertEquals(3, calls.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    public void testReadSensors() throws IOException {
+        var json = "[{\"location\":\"slips.mass.baking\",\"battery\":96.4,\"reading\":\"67.76\"},"
+                + "{\"reading\":null,\"battery\":5,\"extra\":[1,2],\"location\":\"a.b.c\"}]";
+        var sensors = Sensor.readSensors(new JsonReader(new StringReader(json)));
+        assertEquals(2, sensors.size());
+        assertEquals("slips.mass.baking", sensors.get(0).getLocation());
+        assertEquals("67.76", sensors.get(0).getReading());
+        assertEquals("null", sensors.get(1).getReading());
+        assertEquals("#000000", sensors.get(1).getProperties()[0]);
+    }
+    
+    public void testReadSensorDetails() throws IOException {
+        var json = "{\"country\":\"GB\",\"square\":{\"southwest\":{\"lng\":-3.18,\"lat\":55.94}},"
+                + "\"coordinates\":{\"lng\":-3.186874,\"lat\":55.944494},\"words\":\"slips.mass.baking\"}";
+        var details = SensorDetails.readSensorDetails(new JsonReader(new StringReader(json)));
+        assertTrue(approxEq(new Position(-3.186874, 55.944494), details.getCoordinates()));
+    }
+    
+    public void testValidatorFindsViolations() {
+        var validator = new FlightLogValidator(new Obstacles(Arrays.asList(square(-3.1883, 55.9447, 0.0001))));
+        var p1 = p0.nextPosition(90);
+        var p2 = p1.nextPosition(0);
+        var legal = p0.getLng() + "," + p0.getLat() + ",90," + p1.getLng() + "," + p1.getLat() + ",null";
+        var crossing = p1.getLng() + "," + p1.getLat() + ",0," + p2.getLng() + "," + p2.getLat() + ",a.b.c";
+        
+        var sensors = new HashMap<String, Position>();
+        sensors.put("a.b.c", p2);
+        assertTrue(validator.validate(Arrays.asList("1," + legal), sensors).isEmpty());
+        
+        var violations = validator.validate(Arrays.asList("1," + legal, "2," + crossing.replace(",0,", ",5,")), sensors);
+        assertEquals(2, violations.size());
+        assertTrue(violations.get(0).contains("direction 5"));
+        assertTrue(violations.get(1).contains("no fly zone"));
+        
+        sensors.put("a.b.c", p0);
+        violations = validator.validate(Arrays.asList("1," + legal, "2," + crossing), sensors);
+        assertEquals(2, violations.size());
+    }
+    
+    public void testPathSimplifier() {
+        var path = new FlightPath(p0);
+        var pos = p0;
+        for (int i = 0; i < 10; i++) {
+            pos = pos.nextPosition(0);
+            path.add(pos, 0);
+        }
+        for (int i = 0; i < 10; i++) {
+            pos = pos.nextPosition(90);
+            path.add(pos, 90);
+        }
+        var simplifier = new PathSimplifier(path);
+        assertTrue(Arrays.equals(new int[] {0, 10, 20}, simplifier.simplify(1e-6)));
+        assertEquals(2, simplifier.simplify(1).length);
+        assertEquals(21, simplifier.simplify(-1).length);
+
+        var levels = simplifier.displayLevels(1e-6, 2);
+        assertEquals(2, levels.size());
+        assertEquals(1, levels.get(1).getNumberProperty("lod").intValue());
+    }
+
+    public void testGeoJsonEncoder() throws IOException {
+        var encoder = new GeoJsonEncoder(7);
+        var out = new java.io.StringWriter();
+        encoder.writeNumber(-3.18839649, out);
+        out.write(' ');
+        encoder.writeNumber(55.9444, out);
+        out.write(' ');
+        encoder.writeNumber(-0.00000001, out);
+        assertEquals("-3.1883965 55.9444 0", out.toString());
+
+        var feature = Feature.fromGeometry(Point.fromLngLat(-3.188396, 55.944425));
+        feature.addStringProperty("marker-color", "#00ff00");
+        var fc = FeatureCollection.fromFeatures(Arrays.asList(feature, square(-3.1883, 55.9444, 0.0001)));
+        var decoded = FeatureCollection.fromJson(encoder.encode(fc));
+        assertEquals(2, decoded.features().size());
+        assertEquals("#00ff00", decoded.features().get(0).getStringProperty("marker-color"));
+        assertEquals(55.944425, ((Point) decoded.features().get(0).geometry()).latitude());
+    }
+
+    private interface FixtureTest {
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs a test against a FixtureServer serving the fixtures directory on a free port
+     */
+    private static void withFixtures(FixtureTest test) throws Exception {
+        var fixtureServer = new FixtureServer(Path.of("fixtures"));
+        fixtureServer.start(0);
+        try {
+            App.port = String.valueOf(fixtureServer.getPort());
+            test.run();
+        } finally {
+            fixtureServer.stop();
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (var files = Files.walk(dir)) {
+            files.sorted(Collections.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+
+    public void testMapArtefactRoundTrip() throws Exception {
+        withFixtures(() -> {
+            var map = new Map("01", "01", "2020");
+            var file = Files.createTempFile("map", ".aqm");
+            MapArtefact.write(map, file);
+
+            var artefact = MapArtefact.load(file, "01", "01", "2020");
+            assertEquals(map.getSensors().size(), artefact.getSensors().size());
+            var sensor = artefact.getSensors().get(0);
+            assertEquals(map.getSensors().get(0).getLocation(), sensor.getLocation());
+            assertTrue(approxEq(map.getSensors().get(0).toPosition(), sensor.toPosition()));
+            assertEquals(map.getObstacles().getNoOfEdges(), artefact.getObstacles().getNoOfEdges());
+
+            // Another date, or a corrupted body, falls back to the web server
+            assertNull(MapArtefact.load(file, "02", "02", "2020"));
+            var bytes = Files.readAllBytes(file);
+            bytes[bytes.length - 1] ^= 1;
+            Files.write(file, bytes);
+            assertNull(MapArtefact.load(file, "01", "01", "2020"));
+
+            // A file cut short anywhere, including within the date before the checksum
+            for (int length : new int[] {0, 6, 10, 14, 20, bytes.length / 2, bytes.length - 1}) {
+                Files.write(file, Arrays.copyOf(bytes, length));
+                assertNull(MapArtefact.load(file, "01", "01", "2020"));
+            }
+            Files.delete(file);
+        });
+    }
+
+    public void testCoveragePlannerGroupsCloseSensors() throws Exception {
+        var a = new Sensor("a.a.a", 50, "10.0", p0);
+        var b = new Sensor("b.b.b", 50, "20.0", new Position(p0.getLng() + 0.0002, p0.getLat()));
+        var c = new Sensor("c.c.c", 50, "30.0", new Position(p0.getLng(), p0.getLat() + 0.001));
+        var waypoints = new CoveragePlanner(new Obstacles(new ArrayList<Feature>())).cover(Arrays.asList(a, b, c));
+
+        assertEquals(2, waypoints.size());
+        assertEquals(Arrays.asList(a, b), waypoints.get(0).sensors);
+        assertTrue(waypoints.get(0).position.withinDistance(p0));
+        assertTrue(waypoints.get(0).position.withinDistance(b.toPosition()));
+        assertSame(c.toPosition(), waypoints.get(1).position);
+    }
+
+    public void testPlanningServer() throws Exception {
+        withFixtures(() -> {
+            var planningServer = new PlanningServer();
+            planningServer.start(0);
+            try {
+                var url = "http://localhost:" + planningServer.getPort() + "/plan?";
+                var ok = get(url + "day=01&month=01&year=2020&lat=55.944425&lng=-3.188396&seed=5678");
+                assertEquals(200, ok.statusCode());
+                var reply = new Gson().fromJson(ok.body(), JsonObject.class);
+                var readings = FeatureCollection.fromJson(reply.get("readings").toString());
+                var moves = reply.get("flightpath").getAsString().split("\n");
+                assertTrue(moves.length > 0 && moves.length <= 150);
+                // One marker per sensor, plus the flight path
+                assertEquals(34, readings.features().size());
+
+                assertEquals(400, get(url + "day=01&month=01&year=2020&lat=55.944425").statusCode());
+                assertEquals(400, get(url + "day=01&month=01&year=2020&lat=north&lng=-3.188396").statusCode());
+                assertEquals(502, get(url + "day=31&month=12&year=1999&lat=55.944425&lng=-3.188396").statusCode());
+
+                // Concurrent requests for a date not downloaded yet all wait for the same download
+                var replies = new ArrayList<java.util.concurrent.CompletableFuture<HttpResponse<String>>>();
+                for (int i = 0; i < 8; i++) {
+                    replies.add(JsonParser.client.sendAsync(HttpRequest.newBuilder(URI.create(url
+                            + "day=02&month=02&year=2020&lat=55.944425&lng=-3.188396&seed=" + i)).build(), HttpResponse.BodyHandlers.ofString()));
+                }
+                for (var concurrent : replies) assertEquals(200, concurrent.get().statusCode());
+            } finally {
+                planningServer.stop();
+            }
+        });
+    }
+
+    private static HttpResponse<String> get(String url) throws IOException, InterruptedException {
+        return JsonParser.client.send(HttpRequest.newBuilder(URI.create(url)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    public void testPortfolioKeepsBestFlight() throws Exception {
+        withFixtures(() -> {
+            var portfolio = new Portfolio(new Map("01", "01", "2020"), p0);
+            // No flight is good enough to stop early, so every seed is flown
+            var best = portfolio.run(1, 3, 0);
+
+            assertEquals(3, portfolio.getMoveCounts().size());
+            assertTrue(best.getSensorsToVisit().isEmpty());
+            assertTrue(best.getCurrPos().closeToStart(p0));
+            assertEquals((int) Collections.min(portfolio.getMoveCounts()), best.getMovesUsed());
+
+            var out = new ByteArrayOutputStream();
+            var stdout = System.out;
+            System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+            try {
+                portfolio.printSummary();
+            } finally {
+                System.setOut(stdout);
+            }
+            var summary = out.toString(StandardCharsets.UTF_8);
+            assertTrue(summary.contains("SEEDS FLOWN: 3"));
+            assertTrue(summary.contains("MOVES MIN: " + best.getMovesUsed() + ","));
+        });
+    }
+
+    public void testPortfolioStopsEarly() throws Exception {
+        withFixtures(() -> {
+            var portfolio = new Portfolio(new Map("01", "01", "2020"), p0);
+            // Every complete flight is good enough, so only the seeds started before the first
+            // one finished are flown
+            var best = portfolio.run(1, 200, 150);
+
+            assertTrue(portfolio.getMoveCounts().size() <= Runtime.getRuntime().availableProcessors());
+            assertTrue(best.getSensorsToVisit().isEmpty());
+        });
+    }
+
+    public void testPortfolioArgumentsGivenTogether() throws Exception {
+        try {
+            App.main(new String[] {"01", "01", "2020", "55.944425", "-3.188396", "5678", "80", "4"});
+            fail("a number of seeds without a target number of moves must be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("given together"));
+        }
+    }
+
+    public void testPortfolioInterrupted() throws Exception {
+        withFixtures(() -> {
+            var map = new Map("01", "01", "2020");
+            for (Sensor sensor : map.getSensors()) sensor.toPosition();
+            var portfolio = new Portfolio(map, p0);
+            Thread.currentThread().interrupt();
+            try {
+                portfolio.run(1, 200, 0);
+                fail("an interrupted portfolio must throw InterruptedException");
+            } catch (InterruptedException e) {
+                assertFalse(Thread.interrupted());
+            }
+            // The seeds not started yet were dropped, only the drones already flying finish
+            var flown = portfolio.getMoveCounts().size();
+            Thread.sleep(1000);
+            assertTrue(portfolio.getMoveCounts().size() <= flown + Runtime.getRuntime().availableProcessors());
+        });
+    }
+
+    public void testLegCacheReplaysSameFlight() throws Exception {
+        withFixtures(() -> {
+            var map = new Map("01", "01", "2020");
+            var cache = new LegCache(1000);
+            var logs = new ArrayList<String>();
+            for (int i = 0; i < 2; i++) {
+                var drone = new Drone(map, p0, new Random(5678));
+                drone.setPrintPerformance(false);
+                drone.setLegCache(cache);
+                drone.droneSimulator();
+                logs.add(drone.getLog());
+            }
+            assertEquals(logs.get(0), logs.get(1));
+            assertTrue(cache.getHits() > 0);
+
+            // A zone added mid-flight changes the key of every leg
+            var obstacles = new Obstacles(map.getObstacles());
+            var to = new Position(-3.187, 55.945);
+            var key = LegCache.key(p0, to, obstacles);
+            assertEquals(key, LegCache.key(new Position(p0.getLng() + 0.00001, p0.getLat()), to, obstacles));
+            obstacles.add(square(-3.1875, 55.9446, 0.0002));
+            assertFalse(key.equals(LegCache.key(p0, to, obstacles)));
+
+            var file = Files.createTempFile("legs", ".bin");
+            cache.save(file);
+            assertEquals(cache.size(), LegCache.load(file, 1000).size());
+            assertEquals(10, LegCache.load(file, 10).size());
+            var bytes = Files.readAllBytes(file);
+            Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+            assertEquals(0, LegCache.load(file, 1000).size());
+            Files.delete(file);
+        });
+    }
+
+    public void testTileMath() {
+        // The world is one tile at zoom 0, and doubles on each side with every zoom level
+        assertEquals(0, TileRenderer.pixelX(-180, 0), 1e-9);
+        assertEquals(128, TileRenderer.pixelX(0, 0), 1e-9);
+        assertEquals(256 << 3, TileRenderer.pixelX(180, 3), 1e-9);
+        assertEquals(128, TileRenderer.pixelY(0, 0), 1e-9);
+        assertEquals(0, TileRenderer.pixelY(85.0511287798, 0), 1e-6);
+        assertTrue(TileRenderer.pixelY(p0.getLat(), 10) < TileRenderer.pixelY(p0.getLat() - 0.01, 10));
+        assertEquals(2 * TileRenderer.pixelX(p0.getLng(), 15), TileRenderer.pixelX(p0.getLng(), 16), 1e-6);
+
+        assertEquals(0xff8000, TileRenderer.color("#ff8000", 1f).getRGB() & 0xffffff);
+        assertEquals(TileRenderer.color("#aaaaaa", 1f), TileRenderer.color("", 1f));
+    }
+
+    public void testTileRendererOutOfRangeReading() throws Exception {
+        // A reading above 256 has no colour band, so its marker has an empty colour
+        var sensor = new Sensor("a.a.a", 50, "300.0", p0);
+        var marker = Feature.fromGeometry(Point.fromLngLat(p0.getLng(), p0.getLat()));
+        sensor.addProperties(marker, true);
+        assertEquals("", marker.getStringProperty("marker-color"));
+        var far = Feature.fromGeometry(Point.fromLngLat(p0.getLng() + 0.05, p0.getLat()));
+
+        var dir = Files.createTempDirectory("tiles");
+        try {
+            var renderer = new TileRenderer(Arrays.asList(marker, far));
+            renderer.render(dir, 16, 16);
+            assertTrue(renderer.getRendered() >= 2);
+
+            // The far marker is gone, so its tiles are deleted and the others are left as they are
+            var again = new TileRenderer(Arrays.asList(marker));
+            again.render(dir, 16, 16);
+            assertEquals(0, again.getRendered());
+            assertTrue(again.getSkipped() >= 1);
+            assertEquals(renderer.getRendered() - again.getSkipped(), again.getDeleted());
+            try (var files = Files.walk(dir)) {
+                assertEquals(again.getSkipped(), files.filter(f -> f.toString().endsWith(".png")).count());
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    public void testBatchPipelineFliesDatesInOrder() throws Exception {
+        withFixtures(() -> {
+            var dir = Files.createTempDirectory("pipeline");
+            try {
+                var dates = Arrays.asList(new String[] {"01", "01", "2020"}, new String[] {"02", "02", "2020"},
+                        new String[] {"03", "03", "2020"});
+                var pipeline = new BatchPipeline(p0, 5678, 1);
+                pipeline.setOutputDir(dir);
+                var drones = pipeline.run(dates);
+
+                assertEquals(3, drones.size());
+                for (int i = 0; i < 3; i++) {
+                    var date = String.join("-", dates.get(i));
+                    assertEquals(drones.get(i).getLog(), Files.readString(dir.resolve("flightpath-" + date + ".txt")));
+                    assertTrue(Files.isRegularFile(dir.resolve("readings-" + date + ".geojson")));
+
+                    // Same flight as App flies for the date on its own
+                    var alone = new Drone(new Map(dates.get(i)[0], dates.get(i)[1], dates.get(i)[2]), p0, new Random(5678));
+                    alone.setPrintPerformance(false);
+                    alone.droneSimulator();
+                    assertEquals(alone.getLog(), drones.get(i).getLog());
+                }
+                for (BatchPipeline.StageMetrics metrics : pipeline.getMetrics()) {
+                    assertEquals(3, metrics.getItems());
+                    assertTrue(metrics.getBusyNanos() > 0);
+                    assertTrue(metrics.getThroughput() > 0);
+                }
+            } finally {
+                deleteTree(dir);
+            }
+        });
+    }
+
+    public void testBatchPipelineFailsOnMissingDate() throws Exception {
+        withFixtures(() -> {
+            var dir = Files.createTempDirectory("pipeline");
+            try {
+                var pipeline = new BatchPipeline(p0, 5678, 1);
+                pipeline.setOutputDir(dir);
+                pipeline.run(Arrays.asList(new String[] {"01", "01", "2020"}, new String[] {"31", "12", "1999"},
+                        new String[] {"02", "02", "2020"}));
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("HTTP 404"));
+            } finally {
+                deleteTree(dir);
+            }
+        });
+    }
+
+    public void testVisitPublisherEvents() throws Exception {
+        withFixtures(() -> {
+            var drone = new Drone(new Map("01", "01", "2020"), p0, new Random(5678));
+            drone.setPrintPerformance(false);
+            var events = Collections.synchronizedList(new ArrayList<VisitEvent>());
+            var completed = new CountDownLatch(1);
+            drone.getVisitPublisher().subscribe(new Flow.Subscriber<VisitEvent>() {
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                public void onNext(VisitEvent event) {
+                    events.add(event);
+                }
+
+                public void onError(Throwable error) {
+                }
+
+                public void onComplete() {
+                    completed.countDown();
+                }
+            });
+            drone.droneSimulator();
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+
+            // One event per visit, in the order of the visits, at the move of each visit
+            var visited = drone.getVisitedSensors();
+            assertEquals(visited.size(), events.size());
+            for (int i = 0; i < events.size(); i++) {
+                assertSame(visited.get(i), events.get(i).getSensor());
+                assertTrue(events.get(i).getMoveIndex() >= (i == 0 ? 1 : events.get(i - 1).getMoveIndex()));
+            }
+            assertTrue(events.get(events.size() - 1).getMoveIndex() <= drone.getMovesUsed());
+        });
+    }
+
+    public void testLoopFreeDirection() throws Exception {
+        withFixtures(() -> {
+            var drone = new Drone(new Map("01", "01", "2020"), p0, new Random(5678));
+            drone.startLeg();
+            for (int i = 0; i < 3; i++) drone.move(drone.getCurrPos().nextPosition(0), 0);
+
+            // Heading straight back west to the target re-enters the cells flown since p0
+            var target = new Position(p0.getLng() - 0.001, p0.getLat());
+            var greedy = drone.getBestDirection(target);
+            assertEquals(180, greedy);
+            assertTrue(drone.revisits(drone.getCurrPos().nextPosition(greedy)));
+
+            var direction = drone.getLoopFreeDirection(target, greedy);
+            assertTrue(direction != 180);
+            assertFalse(drone.revisits(drone.getCurrPos().nextPosition(direction)));
+            // Still makes progress towards the target
+            assertTrue(direction > 90 && direction < 270);
+
+            // Cells of a previous leg are not a loop
+            drone.startLeg();
+            assertFalse(drone.revisits(drone.getCurrPos().nextPosition(greedy)));
+        });
+    }
+
+    public void testMapChangesDuringFlight() throws Exception {
+        withFixtures(() -> {
+            var map = new Map("01", "01", "2020");
+            var undisturbed = new Drone(map, p0, new Random(5678));
+            undisturbed.setPrintPerformance(false);
+            undisturbed.droneSimulator();
+            var visited = undisturbed.getVisitedSensors();
+            var path = undisturbed.getFlightPath().asPositions();
+
+            // After the first visit, drop the next sensor and close a zone on the path ahead,
+            // from the subscriber, which runs on the drone's thread between two moves
+            var firstVisit = new int[] {-1};
+            var ahead = new Position[1];
+            var drone = new Drone(map, p0, new Random(5678));
+            drone.setPrintPerformance(false);
+            drone.setVisitPublisher(new SubmissionPublisher<>(Runnable::run, Flow.defaultBufferSize()));
+            drone.getVisitPublisher().subscribe(new Flow.Subscriber<VisitEvent>() {
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                public void onNext(VisitEvent event) {
+                    if (firstVisit[0] >= 0) return;
+                    firstVisit[0] = event.getMoveIndex();
+                    ahead[0] = path.get(firstVisit[0] + 3);
+                    drone.dropSensor(visited.get(1).getLocation());
+                    drone.addNoFlyZone(square(ahead[0].getLng() - 0.0001, ahead[0].getLat() - 0.0001, 0.0002));
+                }
+
+                public void onError(Throwable error) {
+                }
+
+                public void onComplete() {
+                }
+            });
+            drone.droneSimulator();
+
+            assertFalse(drone.getVisitedSensors().contains(visited.get(1)));
+            var zone = new Obstacles(Arrays.asList(square(ahead[0].getLng() - 0.0001, ahead[0].getLat() - 0.0001, 0.0002)));
+            assertTrue(zone.intersects(path.get(firstVisit[0] + 2), path.get(firstVisit[0] + 3)));
+            var changed = drone.getFlightPath().asPositions();
+            for (int i = firstVisit[0]; i + 1 < changed.size(); i++) {
+                assertFalse(zone.intersects(changed.get(i), changed.get(i + 1)));
+            }
+        });
+    }
+
+    public void testLaunchSiteSweep() throws Exception {
+        withFixtures(() -> {
+            var sweep = new LaunchSiteSweep(new Map("01", "01", "2020"), 5678);
+            var grid = sweep.gridCandidates(0.001);
+            assertEquals(3 * 8, grid.size());
+            for (Position site : grid) assertTrue(site.inConfinementArea());
+
+            // Sites outside the confinement area are skipped
+            var candidates = new ArrayList<Position>(grid.subList(0, 6));
+            candidates.add(p0);
+            candidates.add(new Position(Position.MAX_LNG + 0.001, p0.getLat()));
+            var ranking = sweep.run(candidates);
+            assertEquals(7, ranking.size());
+
+            // Ranked by sensors visited, then return to start, then moves
+            for (int i = 1; i < ranking.size(); i++) {
+                var a = ranking.get(i - 1);
+                var b = ranking.get(i);
+                assertTrue(a.sensorsVisited >= b.sensorsVisited);
+                if (a.sensorsVisited == b.sensorsVisited && a.backToStart == b.backToStart) {
+                    assertTrue(a.movesUsed <= b.movesUsed);
+                }
+                if (a.sensorsVisited == b.sensorsVisited) assertTrue(a.backToStart || !b.backToStart);
+            }
+
+            // Each site gets the same flight as a drone launched there on its own
+            for (LaunchSiteSweep.Site site : ranking) {
+                if (site.start != p0) continue;
+                var drone = new Drone(new Map("01", "01", "2020"), p0, new Random(5678));
+                drone.setPrintPerformance(false);
+                drone.droneSimulator();
+                assertEquals(drone.getMovesUsed(), site.movesUsed);
+                assertEquals(drone.getVisitedSensors().size(), site.sensorsVisited);
+            }
+        });
+    }
+
+    public void testLocalFrame() {
+        var frame = LocalFrame.CONFINEMENT_AREA;
+
+        // At 56 degrees north, a degree of longitude is about 0.56 of a degree of latitude
+        assertEquals(0.56, frame.stepMetres(0) / frame.stepMetres(90), 0.01);
+        assertEquals(frame.stepMetres(90), frame.getMaxStepMetres(), 1e-9);
+        assertEquals(33.4, frame.stepMetres(270), 0.1);
+    }
+
+    public void testMetresBudget() throws Exception {
+        withFixtures(() -> {
+            var map = new Map("01", "01", "2020");
+            var unlimited = new Drone(map, p0, new Random(5678));
+            unlimited.setPrintPerformance(false);
+            unlimited.droneSimulator();
+
+            // A budget below the unlimited flight cuts it short, but the drone still gets home
+            var budget = 1500.0;
+            assertTrue(unlimited.getMetresFlown() > budget);
+            var drone = new Drone(map, p0, new Random(5678));
+            drone.setPrintPerformance(false);
+            drone.setMaxMetres(budget);
+            drone.droneSimulator();
+
+            assertTrue(drone.getMetresFlown() <= budget);
+            assertTrue(drone.getCurrPos().closeToStart(p0));
+            assertTrue(drone.getVisitedSensors().size() < unlimited.getVisitedSensors().size());
+        });
+    }
+
+    public void testReturnFromUnreachedCell() throws Exception {
+        withFixtures(() -> {
+            // A distance field whose cells around the start position were never reached
+            var start = new Position(-3.1900, 55.9435);
+            var walled = new Obstacles(Arrays.asList(square(start.getLng() - 0.0005, start.getLat() - 0.0005, 0.001)));
+            var field = new DistanceField(walled, p0);
+            assertEquals(-1, field.getMovesToHome(start.nextPosition(0)));
+
+            // The straight line home already exceeds the budget, so no sensor is visited
+            var drone = new Drone(new Map("01", "01", "2020"), start, new Random(5678));
+            drone.setPrintPerformance(false);
+            drone.setHomeField(field);
+            drone.setMaxMetres(100);
+            drone.droneSimulator();
+            assertTrue(drone.getVisitedSensors().isEmpty());
+            assertTrue(drone.getCurrPos().closeToStart(start));
+        });
+    }
+
+    public void testHilbertTour() throws Exception {
+        // Consecutive cells along the curve are neighbours
+        var cells = new HashMap<Long, int[]>();
+        for (int x = 0; x < 64; x++) {
+            for (int y = 0; y < 64; y++) cells.put(HilbertTour.curveIndex(x << 10, y << 10) >> 20, new int[] {x, y});
+        }
+        for (long i = 1; i < 64 * 64; i++) {
+            var a = cells.get(i - 1);
+            var b = cells.get(i);
+            assertEquals(1, Math.abs(a[0] - b[0]) + Math.abs(a[1] - b[1]));
+        }
+
+        var rnd = new Random(1);
+        var sensors = new ArrayList<Sensor>();
+        for (int i = 0; i < 500; i++) {
+            sensors.add(new Sensor("s" + i, 50, "1.0", new Position(-3.192 + rnd.nextDouble() * 0.007, 55.943 + rnd.nextDouble() * 0.003)));
+        }
+        var curve = HilbertTour.plan(p0, sensors, 0);
+        var tour = HilbertTour.plan(p0, sensors, 16);
+        assertEquals(500, tour.size());
+        assertEquals(new HashSet<>(sensors), new HashSet<>(tour));
+
+        // The local search only ever shortens the tour along the curve
+        assertTrue(tourLength(tour) < tourLength(curve));
+    }
+
+    private double tourLength(List<Sensor> tour) throws Exception {
+        var length = 0.0;
+        var pos = p0;
+        for (Sensor sensor : tour) {
+            length += pos.distanceBetween(sensor.toPosition());
+            pos = sensor.toPosition();
+        }
+        return length + pos.distanceBetween(p0);
+    }
+
+    public void testAnytimePlannerStopsAtDeadline() throws Exception {
+        withFixtures(() -> {
+            var map = new Map("01", "01", "2020");
+            var planner = new AnytimePlanner(map, p0, 5678);
+            var published = new ArrayList<Drone>();
+            // Deadline already passed: only the greedy flight, which is always flown, comes back
+            var best = planner.plan(System.nanoTime() - 1, published::add);
+
+            assertEquals(1, planner.getNoOfFlights());
+            assertEquals(1, published.size());
+            assertSame(best, published.get(0));
+
+            var greedy = new Drone(map, p0, new Random(5678));
+            greedy.setPrintPerformance(false);
+            greedy.droneSimulator();
+            assertEquals(greedy.getLog(), best.getLog());
+        });
+    }
+
+    public void testScoreboardCompare() {
+        var base = new Scoreboard.Entry("01-01-2020", 10.0, 2.0, 1000, 100, 33, 33, true);
+        var same = new Scoreboard.Entry("01-01-2020", 10.5, 2.1, 2000, 105, 33, 33, true);
+        var worse = new Scoreboard.Entry("01-01-2020", 20.0, 4.0, 1000, 120, 32, 33, false);
+        // Slower relative to the reference workload, whatever the raw time and allocations
+        var slower = new Scoreboard.Entry("01-01-2020", 5.0, 2.5, 1000, 100, 33, 33, true);
+        assertTrue(Scoreboard.compare(Arrays.asList(base), Arrays.asList(same), 0.1).isEmpty());
+        var regressions = Scoreboard.compare(Arrays.asList(base), Arrays.asList(slower), 0.1);
+        assertEquals(1, regressions.size());
+        assertTrue(regressions.get(0).contains("time ratio"));
+        assertEquals(4, Scoreboard.compare(Arrays.asList(base), Arrays.asList(worse), 0.1).size());
+        assertEquals(1, Scoreboard.compare(Arrays.asList(base), new ArrayList<Scoreboard.Entry>(), 0.1).size());
+    }
+
+    public void testFixtureServerVariant() {
+        var fixtures = new FixtureServer(FixtureServer.parseRoots("fixtures-buildings" + java.io.File.pathSeparator + "fixtures"));
+        assertEquals(Path.of("fixtures-buildings/buildings/no-fly-zones.geojson").toAbsolutePath(),
+                fixtures.find("buildings/no-fly-zones.geojson"));
+        assertEquals(Path.of("fixtures/maps").toAbsolutePath(), fixtures.find("maps"));
+        assertNull(fixtures.find("../pom.xml"));
+    }
+
+    public void testFlightPathLog() {
+        var path = new FlightPath(p0);
+        var p1 = p0.nextPosition(90);
+        path.add(p1, 90);
+        path.setLastRead("a.b.c");
+        path.add(p1.nextPosition(350), 350);
+        
+        assertEquals(2, path.getNoOfMoves());
+        assertTrue(approxEq(p1, path.asPositions().get(1)));
+        
+        var log = new StringBuilder();
+        path.writeLog(log);
+        var lines = log.toString().split("\n");
+        assertEquals("1," + p0.getLng() + "," + p0.getLat() + ",90," + p1.getLng() + "," + p1.getLat() + ",a.b.c", lines[0]);
+        assertTrue(lines[1].endsWith(",null"));
+    }
+    
 //    /**
 //     * Rigourous Test :-)
 //     * @throws InterruptedException 
@@ -2,27 +2,42 @@ package uk.ac.ed.inf.heatmap;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Scanner;
+import java.util.zip.GZIPOutputStream;
 
 import com.mapbox.geojson.*;
 
 public class App 
 {
     /**
-     * Writes the input string parameter to the specified input file.
+     * Writes the input FeatureCollection to a .geojson file. With -Dheatmap.precision=n the coordinates
+     * are rounded to n decimals by GeoJsonEncoder, and with -Dheatmap.gzip=true the file is compressed
+     * while it is written and ".gz" is appended to its name
      * 
+     * @param fc    - FeatureCollection object
      * @param fname - name of the file to be written to
-     * @param s - String object to be written to the file
      * @throws IOException
      */
-    private static void writeToFile(String fname, String s) throws IOException {
-        var writer = new BufferedWriter(new FileWriter(fname));
-        writer.write(s);
-        writer.close();
+    public static void writeGeoJSON(FeatureCollection fc, String fname) throws IOException {
+        var precision = Integer.getInteger("heatmap.precision");
+        var gzip = Boolean.getBoolean("heatmap.gzip");
+        
+        OutputStream out = new FileOutputStream(gzip ? fname + ".gz" : fname);
+        if (gzip) out = new GZIPOutputStream(out, 8192);
+        try (var writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            if (precision != null) {
+                new GeoJsonEncoder(precision).write(fc, writer);
+            } else {
+                writer.write(fc.toJson());
+            }
+        }
     }
     
     /**
@@ -149,9 +164,7 @@ public class App
         scan.close();
         // Create a FeatureCollection object from the list of features
         var fc = FeatureCollection.fromFeatures(features);
-        // Create a JSON-formatted string of the feature collection
-        String json = fc.toJson();
         // Create output file 
-        writeToFile("heatmap.geojson", json);
+        writeGeoJSON(fc, "heatmap.geojson");
     }
 }
\ No newline at end of file
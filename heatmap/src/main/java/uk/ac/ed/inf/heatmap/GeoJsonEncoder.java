@@ -0,0 +1,148 @@
+package uk.ac.ed.inf.heatmap;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.LineString;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+public class GeoJsonEncoder {
+
+    private final int precision;
+    private final long scale;
+
+    // Digits of the number being written, filled from the right (an encoder is not thread safe)
+    private final char[] digits = new char[40];
+
+    /**
+     * @param precision - number of decimals kept in the coordinates, between 0 and 15
+     */
+    public GeoJsonEncoder(int precision) {
+        if (precision < 0 || precision > 15) throw new IllegalArgumentException("precision must be between 0 and 15");
+        this.precision = precision;
+        var s = 1L;
+        for (int i = 0; i < precision; i++) s *= 10;
+        this.scale = s;
+    }
+
+    /**
+     * Encodes a FeatureCollection to a String
+     *
+     * @param fc - FeatureCollection object
+     * @return GeoJSON text
+     */
+    public String encode(FeatureCollection fc) {
+        var out = new StringWriter();
+        try {
+            write(fc, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes a FeatureCollection as GeoJSON, rounding the coordinates of points, line strings and
+     * polygons to the precision of the encoder. Properties and any other geometry are written by Gson
+     *
+     * @param fc  - FeatureCollection object
+     * @param out - Writer to write to, not closed
+     * @throws IOException
+     */
+    public void write(FeatureCollection fc, Writer out) throws IOException {
+        out.write("{\"type\":\"FeatureCollection\",\"features\":[");
+        var features = fc.features();
+        for (int i = 0; features != null && i < features.size(); i++) {
+            if (i > 0) out.write(',');
+            writeFeature(features.get(i), out);
+        }
+        out.write("]}");
+    }
+
+    private void writeFeature(Feature f, Writer out) throws IOException {
+        out.write("{\"type\":\"Feature\",\"geometry\":");
+        var geometry = f.geometry();
+        if (geometry instanceof Point) {
+            out.write("{\"type\":\"Point\",\"coordinates\":");
+            writePoint((Point) geometry, out);
+            out.write('}');
+        } else if (geometry instanceof LineString) {
+            out.write("{\"type\":\"LineString\",\"coordinates\":");
+            writePoints(((LineString) geometry).coordinates(), out);
+            out.write('}');
+        } else if (geometry instanceof Polygon) {
+            out.write("{\"type\":\"Polygon\",\"coordinates\":[");
+            var rings = ((Polygon) geometry).coordinates();
+            for (int i = 0; i < rings.size(); i++) {
+                if (i > 0) out.write(',');
+                writePoints(rings.get(i), out);
+            }
+            out.write("]}");
+        } else {
+            out.write(geometry == null ? "null" : geometry.toJson());
+        }
+        out.write(",\"properties\":");
+        out.write(f.properties() == null ? "{}" : f.properties().toString());
+        out.write('}');
+    }
+
+    private void writePoints(List<Point> points, Writer out) throws IOException {
+        out.write('[');
+        for (int i = 0; i < points.size(); i++) {
+            if (i > 0) out.write(',');
+            writePoint(points.get(i), out);
+        }
+        out.write(']');
+    }
+
+    private void writePoint(Point p, Writer out) throws IOException {
+        out.write('[');
+        writeNumber(p.longitude(), out);
+        out.write(',');
+        writeNumber(p.latitude(), out);
+        out.write(']');
+    }
+
+    /**
+     * Writes a number rounded to the precision of the encoder, without trailing zeros, using
+     * integer arithmetic on the scaled value instead of a generic double to String conversion
+     *
+     * @param value - number to write
+     * @param out   - Writer to write to
+     * @throws IOException
+     */
+    void writeNumber(double value, Writer out) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) throw new IllegalArgumentException("invalid coordinate " + value);
+
+        var scaled = Math.round(Math.abs(value) * scale);
+        var intPart = scaled / scale;
+        var fracPart = scaled % scale;
+
+        var pos = digits.length;
+        if (fracPart != 0) {
+            // Skip the trailing zeros of the decimals, then write the remaining ones
+            var decimals = precision;
+            while (fracPart % 10 == 0) {
+                fracPart /= 10;
+                decimals--;
+            }
+            for (int i = 0; i < decimals; i++) {
+                digits[--pos] = (char) ('0' + fracPart % 10);
+                fracPart /= 10;
+            }
+            digits[--pos] = '.';
+        }
+        do {
+            digits[--pos] = (char) ('0' + intPart % 10);
+            intPart /= 10;
+        } while (intPart != 0);
+        if (value < 0 && scaled != 0) digits[--pos] = '-';
+
+        out.write(digits, pos, digits.length - pos);
+    }
+}
@@ -1,5 +1,14 @@
 package uk.ac.ed.inf.heatmap;
 
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -35,4 +44,29 @@ public class AppTest
     {
         assertTrue( true );
     }
+
+    /**
+     * The heatmap is written as before by default, and the encoder at the 7 decimals kept by
+     * Mapbox gives the same text
+     */
+    public void testWriteGeoJSON() throws Exception
+    {
+        var cell = Feature.fromGeometry(Polygon.fromLngLats(List.of(Arrays.asList(
+                Point.fromLngLat(-3.192473, 55.946233), Point.fromLngLat(-3.1916576, 55.946233),
+                Point.fromLngLat(-3.1916576, 55.9458714), Point.fromLngLat(-3.192473, 55.946233)))));
+        cell.addStringProperty("fill", App.getRGBString(130));
+        cell.addNumberProperty("fill-opacity", 0.75);
+        var fc = FeatureCollection.fromFeatures(List.of(
+                App.droneConfinementArea(-3.192473, -3.184319, 55.946233, 55.942617), cell));
+
+        var file = Files.createTempFile("heatmap", ".geojson");
+        try {
+            App.writeGeoJSON(fc, file.toString());
+            assertEquals(fc.toJson(), Files.readString(file));
+        } finally {
+            Files.delete(file);
+        }
+        assertEquals(fc.toJson(), new GeoJsonEncoder(7).encode(fc));
+        assertTrue(new GeoJsonEncoder(5).encode(fc).contains("[-3.19247,55.94623]"));
+    }
 }